@@ -0,0 +1,85 @@
+package org.wonderly.swing.example;
+
+import org.wonderly.swing.ContextPropagation;
+import org.wonderly.swing.SwingWorker;
+import org.wonderly.swing.SyncThread;
+
+/**
+ *  Measures the per-task cost of each {@link ContextPropagation} mode.  Each
+ *  task constructs a SyncThread or SwingWorker, which captures the context, and
+ *  then runs a trivial piece of work in that context in the calling thread, so
+ *  that the thread hand offs don't hide the cost being measured.
+ *  <pre>
+ *  java org.wonderly.swing.example.ContextPropagationBench [tasks]
+ *  </pre>
+ */
+public class ContextPropagationBench {
+	public static void main( String args[] ) {
+		int cnt = args.length > 0 ? Integer.parseInt( args[0] ) : 200000;
+		for( ContextPropagation how : ContextPropagation.values() ) {
+			ContextPropagation.setDefault( how );
+			// warm up, then measure
+			runSyncThreads( cnt );
+			long start = System.nanoTime();
+			long sum = runSyncThreads( cnt );
+			long sync = System.nanoTime() - start;
+
+			runSwingWorkers( cnt );
+			start = System.nanoTime();
+			sum += runSwingWorkers( cnt );
+			long swing = System.nanoTime() - start;
+			System.out.println( how+": SyncThread "+(sync / cnt)+" ns/task, SwingWorker "+
+				(swing / cnt)+" ns/task ("+sum+")" );
+		}
+		ContextPropagation.setDefault( null );
+	}
+
+	private static long runSyncThreads( int cnt ) {
+		long sum = 0;
+		for( int i = 0; i < cnt; ++i ) {
+			sum += new Task( i ).runInContext();
+		}
+		return sum;
+	}
+
+	private static long runSwingWorkers( int cnt ) {
+		final long sum[] = new long[1];
+		for( int i = 0; i < cnt; ++i ) {
+			final int v = i;
+			SwingWorker<Integer> w = new SwingWorker<Integer>() {
+				public Integer construct() {
+					return v & 7;
+				}
+			};
+			w.new InContextRunnable() {
+				public Object doRun() {
+					sum[0] += v & 7;
+					return null;
+				}
+			}.run();
+		}
+		return sum[0];
+	}
+
+	private static class Task extends SyncThread<Integer,Object> {
+		private final int v;
+
+		Task( int v ) {
+			this.v = v;
+		}
+
+		public @Override Integer run() {
+			return v & 7;
+		}
+
+		int runInContext() {
+			InContextRunnable<Integer> r = new InContextRunnable<Integer>() {
+				public Integer doRun() {
+					return Task.this.run();
+				}
+			};
+			r.run();
+			return r.get();
+		}
+	}
+}
@@ -4,6 +4,13 @@ import org.wonderly.swing.event.*;
 import javax.swing.*;
 import java.awt.*;
 import java.util.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.ToLongFunction;
 
 /**
 <pre>
@@ -44,15 +51,62 @@ OF THE POSSIBILITY OF SUCH DAMAGE.
  *  that are not continuously reallocated.  The interface,
  *  {@link ElementLifeCycleManager} can be used to make
  *  this data item caching possible.
+ *  <p>
+ *  Like the other models, this one is changed in the EDT.  Threads which
+ *  produce elements, such as the readers feeding a log console, can use
+ *  {@link #offer(Object)} instead of passing each element to the EDT.  It puts
+ *  the element in a lock free queue, and the queued elements are added in the
+ *  EDT at most {@link #getFrameRate()} times a second, with one removed and
+ *  one added event for all of them.
+ *  <p>
+ *  Besides the limit on the number of elements, {@link #setMemoryBudget(long,ToLongFunction)}
+ *  can limit the estimated memory which the elements use, so that a buffer of
+ *  log lines of very different lengths holds as many of them as fit in the budget.
  *
  *  @author <a href="mailto:gregg.wonderly@pobox.com">Gregg Wonderly</a>.
  */
 public class CircularListModel<T> extends VectorListModel<T> {
 	private int h = 0; // head index
-	private int t = 0; // tail index
+	private int n = 0; // element count
 	private int maxSize;
-	private boolean wrapped;
 	private ElementLifeCycleManager mgr;
+	// The budget only applies while there is an estimator, which is not serializable
+	private transient long budget, bytes;
+	private transient ToLongFunction<? super T> estimator;
+	/** The number of offered elements which can wait for the EDT */
+	private static final int OFFER_CAPACITY = 1 << 16;
+	private transient volatile Offers offers;
+	private volatile int frameRate = 30;
+	private volatile long lastDrain;
+
+	/**
+	 *  The queue of offered elements.  Producers claim a slot by incrementing
+	 *  <code>tail</code>, and the EDT takes them in order from <code>head</code>.
+	 *  An empty slot is null, so a slot which is claimed but not yet filled
+	 *  stops the EDT until its producer fills it.
+	 */
+	private final class Offers {
+		final AtomicReferenceArray<T> slots = new AtomicReferenceArray<T>( OFFER_CAPACITY );
+		final AtomicLong tail = new AtomicLong();
+		final AtomicBoolean scheduled = new AtomicBoolean();
+		volatile long head;
+		final javax.swing.Timer timer = new javax.swing.Timer( 0, new ActionListener() {
+			public void actionPerformed( ActionEvent ev ) {
+				drain();
+			}
+		});
+		final Runnable doDrain = new Runnable() {
+			public void run() {
+				drain();
+			}
+		};
+
+		Offers() {
+			timer.setRepeats( false );
+			// A restart while drain() runs must not be merged into the running event
+			timer.setCoalesce( false );
+		}
+	}
 
 	public String toString() {
 		String str = size()+"[";
@@ -66,10 +120,18 @@ public class CircularListModel<T> extends VectorListModel<T> {
 	}
 
 	public void removeAllElements() {
+		// Evicted slots may still be in the vector, so use the count
+		int index1 = n-1;
 		h=0;
-		t=0;
-		wrapped=false;
-		super.removeAllElements();
+		n=0;
+		bytes=0;
+		delegate.removeAllElements();
+		if( index1 >= 0 )
+			fireIntervalRemoved(this, 0, index1);
+	}
+
+	public void clear() {
+		removeAllElements();
 	}
 
 	public CircularListModel( ElementLifeCycleManager mgr, int max ) {
@@ -83,9 +145,7 @@ public class CircularListModel<T> extends VectorListModel<T> {
 	}
 
 	public  int size() {
-		if( wrapped )
-			return maxSize;
-		return super.size();
+		return n;
 	}
 
 	public T elementAt( int i ) {
@@ -95,44 +155,54 @@ public class CircularListModel<T> extends VectorListModel<T> {
 	public void setElementAt( T obj, int i ) {
 		if( i >= maxSize )
 			throw new ArrayIndexOutOfBoundsException( i+" > "+maxSize );
+		int idx = i;
 		i += h;
 		i %= maxSize;
-		if(wrapped) {
+		if( estimator != null && idx < n )
+			bytes += estimator.applyAsLong( obj ) - estimator.applyAsLong( delegate.elementAt(i) );
+		if( n == maxSize ) {
 			if( mgr != null ) {
 				mgr.freeElement( (LifeCycleElement)
-					delegate.elementAt(t) );
+					delegate.elementAt((h+n-1) % maxSize) );
 			}
 			delegate.setElementAt( obj, i );
 			fireIntervalRemoved(this, 0, 0);
 			fireIntervalAdded(this, maxSize-1, maxSize-1);
 		} else {
-			super.setElementAt( obj, i );
+			delegate.setElementAt( obj, i );
+			fireContentsChanged(this, idx, idx);
 		}
+		int oldSize = n;
+		evict();
+		if( n < oldSize )
+			fireIntervalRemoved(this, 0, oldSize-n-1);
 	}
 
 	public  void setMaxSize( int sz ) {
-		if( h == 0 && t == 0 && !wrapped ) {
+		if( n == 0 ) {
 //			System.out.println("set size initially");
+			delegate.removeAllElements();
+			h = 0;
 			maxSize = sz;
 			ensureCapacity( maxSize );
 		} else {
 			Vector<T> v = new Vector<T>( sz );
 			int cnt = 0;
 			int mx = Math.min( sz, maxSize );
-			int csz = wrapped ? maxSize : size();
+			int csz = n;
 			for( int i = (sz < csz) ? (csz-sz) : 0;
 						i < csz && cnt++ < mx; i++ ) {
 				v.addElement( getElementAt(i) );
 			}
 //				System.out.println( "new v: ("+maxSize+"->"+sz+"): "+v );
 			setContents( v );
-			wrapped = false;
 			h = 0;
-			t = Math.min( csz, sz );
+			n = Math.min( csz, sz );
+			bytes = estimate();
 			int oldsz = csz;
 			int newsz = sz;
 			maxSize = sz;
-//				System.out.println( "h="+h+", t="+t+", maxSize="+maxSize );
+//				System.out.println( "h="+h+", n="+n+", maxSize="+maxSize );
 			if ( oldsz > newsz) {
 			    fireIntervalRemoved(this, newsz, oldsz-1);
 			}
@@ -140,45 +210,239 @@ public class CircularListModel<T> extends VectorListModel<T> {
 	}
 
 	public  int getSize() {
-		return wrapped ? maxSize : t;
+		return n;
 	}
 
 	public T getElementAt( int idx ) {
-		if( !wrapped ) {
-			if( idx < t-h )
-				return super.getElementAt(h+idx);
-		} else if (idx < maxSize) {
-			return super.getElementAt((h+idx)%maxSize);
-		}
+		if( idx >= 0 && idx < n )
+			return delegate.elementAt((h+idx)%maxSize);
 		throw new IllegalArgumentException( idx+" >= "+getSize() );
 	}
 
 	public void addElement( T obj ) {
-		if( !wrapped ) {
-			if( t < maxSize ) {
-//				System.out.println( Thread.currentThread()+
-//					": unwrapped: t="+t+", h="+h+", max: "+maxSize );
-				// Must adjust count before adding so that events find the
-				// right size.
-				++t;
-				super.addElement( obj );
-				return;
-			}
-			--t;
-			wrapped = true;
-		}
-		if( wrapped ) {
+		int oldSize = n;
+		store( obj );
+		evict();
+		int removed = oldSize + 1 - n;
+		if( removed > 0 )
+			fireIntervalRemoved(this, 0, removed-1);
+		fireIntervalAdded(this, n-1, n-1);
+	}
+
+	/**
+	 *  Add an element at the end, replacing the first element once the
+	 *  model is full, without firing any events.
+	 */
+	private void store( T obj ) {
+		if( estimator != null )
+			bytes += estimator.applyAsLong( obj );
+		if( n == maxSize ) {
+			free( h );
+			delegate.setElementAt( obj, h );
 			h = (h+1) % maxSize;
-			t = (t+1) % maxSize;
-			if( mgr != null ) {
-				mgr.freeElement( (LifeCycleElement)
-					delegate.elementAt(t) );
+			return;
+		}
+		// Until the vector has grown to maxSize, the elements end at its end
+		if( delegate.size() < maxSize )
+			delegate.addElement( obj );
+		else
+			delegate.setElementAt( obj, (h+n) % maxSize );
+		++n;
+	}
+
+	/**
+	 *  Pass the element at the passed index in the vector to the
+	 *  ElementLifeCycleManager, and stop counting its size.
+	 */
+	private void free( int i ) {
+		T obj = delegate.elementAt(i);
+		if( estimator != null )
+			bytes -= estimator.applyAsLong( obj );
+		if( mgr != null )
+			mgr.freeElement( (LifeCycleElement)obj );
+	}
+
+	/**
+	 *  Remove elements from the head, without firing any events, until the
+	 *  rest fit in the memory budget.  The last element is always kept.
+	 */
+	private void evict() {
+		if( estimator == null )
+			return;
+		while( bytes > budget && n > 1 ) {
+			free( h );
+			delegate.setElementAt( null, h );
+			if( ++h == maxSize )
+				h = 0;
+			--n;
+		}
+	}
+
+	private long estimate() {
+		long tot = 0;
+		for( int i = 0; estimator != null && i < n; ++i )
+			tot += estimator.applyAsLong( getElementAt(i) );
+		return tot;
+	}
+
+	/**
+	 *  Limit the model to the elements which fit in the passed number of
+	 *  bytes, as well as to the maximum number of elements.  As elements are
+	 *  added, the oldest are removed until the rest fit, and passed to the
+	 *  {@link ElementLifeCycleManager} as when they are replaced.  The most
+	 *  recent element is kept even if it alone is over the budget.  Must be
+	 *  called in the EDT.  The budget is not serialized with the model, and
+	 *  must be set again after it is read back.
+	 *  <pre>
+	 *  model.setMemoryBudget( 64L &lt;&lt; 20, new ToLongFunction&lt;String&gt;() {
+	 *      public long applyAsLong( String line ) {
+	 *          return 40 + 2 * line.length();
+	 *      }
+	 *  });
+	 *  </pre>
+	 *  @param bytes the most memory the elements should use
+	 *  @param estimator estimates the memory used by an element, which must
+	 *    give the same estimate for an element each time.  Null removes
+	 *    the budget.
+	 */
+	public void setMemoryBudget( long bytes, ToLongFunction<? super T> estimator ) {
+		if( estimator != null && bytes < 0 )
+			throw new IllegalArgumentException( "budget can not be negative: "+bytes );
+		this.budget = bytes;
+		this.estimator = estimator;
+		this.bytes = estimate();
+		int oldSize = n;
+		evict();
+		if( n < oldSize )
+			fireIntervalRemoved(this, 0, oldSize-n-1);
+	}
+
+	/**
+	 *  Get the memory budget.
+	 *  @return the budget in bytes, or 0 if there is none
+	 */
+	public long getMemoryBudget() {
+		return estimator == null ? 0 : budget;
+	}
+
+	/**
+	 *  Get the estimated memory used by the elements.
+	 *  @return the sum of the estimates, or 0 if there is no memory budget
+	 */
+	public long getEstimatedBytes() {
+		return bytes;
+	}
+
+	/**
+	 *  Set how many times a second elements passed to {@link #offer(Object)}
+	 *  are added to the model.
+	 *  @param perSecond the most updates per second, or 0 to add them as
+	 *    soon as the EDT gets to them
+	 */
+	public void setFrameRate( int perSecond ) {
+		if( perSecond < 0 )
+			throw new IllegalArgumentException( "frame rate can not be negative: "+perSecond );
+		frameRate = perSecond;
+	}
+
+	/**
+	 *  Get how many times a second offered elements are added to the model.
+	 */
+	public int getFrameRate() {
+		return frameRate;
+	}
+
+	private Offers offers() {
+		Offers o = offers;
+		if( o == null ) {
+			synchronized( this ) {
+				if( (o = offers) == null )
+					offers = o = new Offers();
 			}
-			delegate.setElementAt( obj, t );
-//				System.out.println( "wrapped: t="+t+", h="+h );
-			fireIntervalRemoved(this, 0, 0);
-			fireIntervalAdded(this, maxSize-1, maxSize-1);
-//				fireContentsChanged(this, 0, maxSize-1);
 		}
+		return o;
+	}
+
+	/**
+	 *  Add an element at the end from any thread, without locking.  The
+	 *  element is added in the EDT with the others offered since the last
+	 *  frame, and one pair of removed and added events is fired for all
+	 *  of them.  When 65536 elements are already waiting, this waits for
+	 *  the EDT to catch up.  Called in the EDT, any waiting elements and
+	 *  then this one are added right away.
+	 *  @param obj the element to add, which can not be null
+	 *  @return true, as the element is always accepted
+	 */
+	public boolean offer( T obj ) {
+		if( obj == null )
+			throw new NullPointerException( "can not offer null" );
+		if( SwingUtilities.isEventDispatchThread() ) {
+			drain();
+			addElement( obj );
+			return true;
+		}
+		Offers o = offers();
+		long slot = o.tail.getAndIncrement();
+		while( slot - o.head >= OFFER_CAPACITY ) {
+			if( o.scheduled.compareAndSet( false, true ) )
+				requestDrain( o );
+			LockSupport.parkNanos( 100000 );
+		}
+		o.slots.set( (int)( slot & ( OFFER_CAPACITY - 1 ) ), obj );
+		if( o.scheduled.compareAndSet( false, true ) )
+			requestDrain( o );
+		return true;
+	}
+
+	/**
+	 *  Arrange for {@link #drain()} to happen in the EDT, no sooner than a
+	 *  frame after the last one.
+	 */
+	private void requestDrain( Offers o ) {
+		int rate = frameRate;
+		long delay = rate == 0 ? 0 : lastDrain + 1000000000L / rate - System.nanoTime();
+		if( delay > 0 ) {
+			o.timer.setInitialDelay( (int)Math.max( 1, delay / 1000000 ) );
+			o.timer.restart();
+		} else {
+			SwingUtilities.invokeLater( o.doDrain );
+		}
+	}
+
+	/**
+	 *  Add the elements which have been passed to {@link #offer(Object)} now,
+	 *  rather than at the next frame.  Must be called in the EDT.
+	 */
+	public void drain() {
+		Offers o = offers;
+		if( o == null )
+			return;
+		o.scheduled.set( false );
+		lastDrain = System.nanoTime();
+		long end = o.tail.get();
+		long head = o.head;
+		int oldSize = getSize();
+		long cnt = 0;
+		while( head < end ) {
+			int i = (int)( head & ( OFFER_CAPACITY - 1 ) );
+			T obj = o.slots.get( i );
+			if( obj == null )
+				break;
+			o.slots.lazySet( i, null );
+			o.head = ++head;
+			store( obj );
+			++cnt;
+		}
+		if( cnt == 0 )
+			return;
+		evict();
+		int newSize = getSize();
+		int removed = (int)Math.min( oldSize, oldSize + cnt - newSize );
+		if( removed > 0 )
+			fireIntervalRemoved( this, 0, removed-1 );
+		if( newSize > oldSize - removed )
+			fireIntervalAdded( this, oldSize - removed, newSize-1 );
+		if( o.tail.get() != head && o.scheduled.compareAndSet( false, true ) )
+			requestDrain( o );
 	}
 }
\ No newline at end of file
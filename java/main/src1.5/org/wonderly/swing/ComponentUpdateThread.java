@@ -3,9 +3,12 @@ package org.wonderly.swing;
 import java.awt.*;
 import java.awt.event.*;
 import org.wonderly.awt.*;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import javax.swing.*;
 import java.util.logging.*;
 
@@ -94,9 +97,80 @@ OF THE POSSIBILITY OF SUCH DAMAGE.
  	}.start();
  *</pre>
  *
+ *  On very large forms, walking every component twice per task can take
+ *  noticable time in the EDT.  Use <code>setBlockingMode( BlockingMode.OVERLAY )</code>,
+ *  or {@link #setDefaultBlockingMode(BlockingMode)} to change all instances, to have
+ *  <code>setup()</code> block input to the components with a single glass pane
+ *  overlay instead, without touching any of their children.
+ *  <p>
+ *  The working dialogs can be kept from flashing up for work which finishes
+ *  quickly with {@link #setDialogDelay(int)} or {@link #setDefaultDialogDelay(int)}.
+ *  Dialogs are reused for later work with the same owner window, rather than
+ *  being disposed.
+ *  <p>
+ *  For work such as search-as-you-type, where only the latest request matters,
+ *  use {@link #start(Object)} with a key.  Starting another instance with an
+ *  equal key interrupts the <code>construct()</code> of the one in progress
+ *  and keeps its <code>finished()</code> from being called, so only the newest
+ *  result reaches the EDT.
+ *<pre>
+ 	filter.getDocument().addDocumentListener( new DocumentListener() {
+ 		...
+ 		public void insertUpdate( DocumentEvent ev ) {
+ 			final String text = filter.getText();
+ 			new ComponentUpdateThread&lt;List&lt;String&gt;&gt;() {
+ 				public List&lt;String&gt; construct() {
+ 					return remote.search( text );
+ 				}
+ 				public void finished() {
+ 					try {
+ 						model.setContents( getValue() );
+ 					} finally {
+ 						super.finished();
+ 					}
+ 				}
+ 			}.start( list );
+ 		}
+ 	});
+ *</pre>
+ *
+ *  Data which many screens load, and which changes rarely, can be kept in a
+ *  {@link ResultCache} by starting with {@link #startCached(Object)} instead
+ *  of <code>start()</code>.  A cached value goes straight to <code>finished()</code>.
+ *
  *  @author <a href="mailto:gregg.wonderly@pobox.com">Gregg Wonderly</a>.
  */
 public abstract class ComponentUpdateThread<T> extends SwingWorker<T> {
+	/**
+	 *  The ways that <code>setup()</code> can keep the user from using the
+	 *  components while <code>construct()</code> runs.
+	 */
+	public enum BlockingMode {
+		/**
+		 *  Disable every component in the tree, and set the cursor and tooltip
+		 *  on each one.  This is the historical behavior.
+		 */
+		TREE,
+		/**
+		 *  Cover the components with the glass pane of their window, which eats
+		 *  mouse and key input and shows the wait cursor over them.  The cost does
+		 *  not depend on the number of children.  Components which are not showing
+		 *  in a JRootPane, and instances which have had <code>setEnabled(true)</code>
+		 *  called, are handled as {@link #TREE}.
+		 */
+		OVERLAY
+	}
+
+	private static final ConcurrentHashMap<Object,ComponentUpdateThread<?>> keyed =
+		new ConcurrentHashMap<Object,ComponentUpdateThread<?>>();
+	private volatile Object key;
+	private volatile Object cacheKey;
+	private volatile ResultCache cache;
+	private static volatile ResultCache defCache;
+	private static volatile BlockingMode defMode = BlockingMode.TREE;
+	private volatile BlockingMode mode;
+	private List<Component> overlaid;
+
 	private static Cursor defWaitCrs = new Cursor( Cursor.WAIT_CURSOR );
 	private static Cursor defDefCrs = new Cursor( Cursor.DEFAULT_CURSOR );
 	private Component comp[];
@@ -108,6 +182,15 @@ public abstract class ComponentUpdateThread<T> extends SwingWorker<T> {
 	private volatile boolean setupSet, finishedSet;
 	private volatile JDialog dlg;
 	private volatile boolean dlgOpen;
+	private javax.swing.Timer dlgTimer;
+	private WindowListener dlgListener;
+	private volatile int dlgDelay = -1;
+	// The dialog asked for before start(), and whether start() has happened
+	private volatile Runnable dlgRequest;
+	private volatile boolean dlgStarted;
+	private static volatile int defDlgDelay;
+	private static final int MAX_POOLED_DIALOGS = 4;
+	private static final String DIALOG_POOL = ComponentUpdateThread.class.getName()+".dialogs";
 	Logger log = Logger.getLogger( ComponentUpdateThread.class.getName()+"."+getClass().getName() );
 
 	/**
@@ -124,6 +207,39 @@ public abstract class ComponentUpdateThread<T> extends SwingWorker<T> {
 		defCrs = crs;
 	}
 
+	/**
+	 *  Set the {@link BlockingMode} used by all instances which have
+	 *  not had {@link #setBlockingMode(BlockingMode)} called.
+	 *  @param how the mode to use, null restores {@link BlockingMode#TREE}
+	 */
+	public static void setDefaultBlockingMode( BlockingMode how ) {
+		defMode = how == null ? BlockingMode.TREE : how;
+	}
+
+	/**
+	 *  Get the {@link BlockingMode} used by all instances which have
+	 *  not had {@link #setBlockingMode(BlockingMode)} called.
+	 */
+	public static BlockingMode getDefaultBlockingMode() {
+		return defMode;
+	}
+
+	/**
+	 *  Set how <code>setup()</code> blocks input to the components
+	 *  @param how the mode to use, null to use {@link #getDefaultBlockingMode()}
+	 */
+	public void setBlockingMode( BlockingMode how ) {
+		mode = how;
+	}
+
+	/**
+	 *  Get how <code>setup()</code> blocks input to the components
+	 */
+	public BlockingMode getBlockingMode() {
+		BlockingMode how = mode;
+		return how != null ? how : defMode;
+	}
+
 	/**
 	 *  Get the current value of the wait Cursor
 	 */
@@ -355,6 +471,41 @@ public abstract class ComponentUpdateThread<T> extends SwingWorker<T> {
 		showDialog( dlg, h, title, msg );
 	}
 
+	/**
+	 *  Set how long all instances which have not had {@link #setDialogDelay(int)}
+	 *  called wait before showing their dialog.  Work which finishes sooner never
+	 *  shows a dialog at all.  The default is 0, which shows the dialog right away.
+	 *  @param millis the delay in milliseconds
+	 */
+	public static void setDefaultDialogDelay( int millis ) {
+		defDlgDelay = Math.max( 0, millis );
+	}
+
+	/**
+	 *  Get how long instances wait before showing their dialog by default.
+	 */
+	public static int getDefaultDialogDelay() {
+		return defDlgDelay;
+	}
+
+	/**
+	 *  Set how long this instance waits before showing its dialog.  This must
+	 *  be called before the instance is started, as the wait starts, and the
+	 *  delay is read, once it has been.
+	 *  @param millis the delay in milliseconds, or -1 to use {@link #getDefaultDialogDelay()}
+	 */
+	public void setDialogDelay( int millis ) {
+		dlgDelay = millis;
+	}
+
+	/**
+	 *  Get how long this instance waits before showing its dialog.
+	 */
+	public int getDialogDelay() {
+		int millis = dlgDelay;
+		return millis >= 0 ? millis : defDlgDelay;
+	}
+
 	/**
 	 *  Shows a dialog that disables access to the indicated frame
 	 */
@@ -487,167 +638,470 @@ public abstract class ComponentUpdateThread<T> extends SwingWorker<T> {
 	/**
 	 *  @param block passed to JDialog contructor to specify if it is a blocking dialog
 	 */
-	protected void openDialog( final boolean block, final CancelHandler h, String title, String... msg) {
+	protected void openDialog( final boolean block, final CancelHandler h, String title, final String... msg) {
 		log.fine("showing "+(block?"blocking":"non-blocking")+" dialog ("+title+") with: "+
 			(msg.length > 0 ? Arrays.toString(msg) : "<no messages>") );
-		if( frame instanceof JDialog )
-			dlg = new JDialog( (JDialog)frame, title, block );
-		else
-			dlg = new JDialog( (JFrame)frame, title, block );
-		Packer pk = new Packer( dlg.getContentPane() );
-		int y = -1;
-		if( msg.length > 1 ) {
-			JPanel mp = new JPanel();
-			Packer mpk = new Packer( mp );
-			JLabel il = new JLabel();
-			Icon progIcon = new ProgressIcon(il);
-			il.setIcon( progIcon );
-			pk.pack( il ).gridx(0).gridy(0).inset(4,4,4,4);
-			pk.pack( new JPanel() ).gridx(0).gridy(1).filly();
-			pk.pack( mp ).gridx(1).gridy(0).gridh(2).fillboth().inset(4,4,4,4);
-			for( String m: msg ) {
-				il = new JLabel(m);
-				mpk.pack( il ).gridx(0).gridy(++y).fillx();
-			}
-		} else {
-			for( String m: msg ) {
-				JLabel il = new JLabel();
-				if( y == -1 ) {
+		requestDialog( block, h, true, title, new DialogContent() {
+			public Container build() {
+				MessagePane cont = new MessagePane( msg.length );
+				Packer pk = new Packer( cont );
+				int y = -1;
+				if( msg.length > 1 ) {
+					JPanel mp = new JPanel();
+					Packer mpk = new Packer( mp );
+					JLabel il = new JLabel();
 					Icon progIcon = new ProgressIcon(il);
 					il.setIcon( progIcon );
+					pk.pack( il ).gridx(0).gridy(0).inset(4,4,4,4);
+					pk.pack( new JPanel() ).gridx(0).gridy(1).filly();
+					pk.pack( mp ).gridx(1).gridy(0).gridh(2).fillboth().inset(4,4,4,4);
+					for( String m: msg ) {
+						il = cont.lines[++y] = new JLabel(m);
+						mpk.pack( il ).gridx(0).gridy(y).fillx();
+					}
+				} else {
+					for( String m: msg ) {
+						JLabel il = new JLabel();
+						if( y == -1 ) {
+							Icon progIcon = new ProgressIcon(il);
+							il.setIcon( progIcon );
+						}
+						il = cont.lines[++y] = new JLabel(m);
+						pk.pack( il ).gridx(0).gridy(y).inset(4,4,4,4).fillx();
+					}
 				}
-				il = new JLabel(m);
-				pk.pack( il ).gridx(0).gridy(++y).inset(4,4,4,4).fillx();
+				return cont;
+			}
+			public boolean update( Container cont ) {
+				if( cont instanceof MessagePane == false ||
+						((MessagePane)cont).lines.length != msg.length )
+					return false;
+				for( int i = 0; i < msg.length; ++i )
+					((MessagePane)cont).lines[i].setText( msg[i] );
+				return true;
 			}
+		});
+	}
+
+	/**
+	 *  The content of a dialog showing String messages, which stays with the
+	 *  dialog in the pool so that showing the same number of messages again
+	 *  only changes the text of the labels.
+	 */
+	private static class MessagePane extends JPanel {
+		private static final long serialVersionUID = 1L;
+		final JLabel[] lines;
+
+		MessagePane( int cnt ) {
+			lines = new JLabel[ cnt ];
 		}
-		if( block )
-			dlg.setDefaultCloseOperation(dlg.DO_NOTHING_ON_CLOSE);
-		if( h != null ) {
-			dlg.addWindowListener( new WindowAdapter() {
-				public void windowClosing( WindowEvent ev ) {
-					dlg.setVisible(false);
-					dlg.dispose();
-					h.cancelled( ComponentUpdateThread.this );
+	}
+	
+	/**
+	 *  @param block passed to JDialog contructor to specify if it is a blocking dialog
+	 */
+	protected void openDialog( final boolean block, final CancelHandler h, String title, final Component... msg) {
+		requestDialog( block, h, false, title, new DialogContent() {
+			public boolean update( Container cont ) {
+				// The components are the caller's, and may be new each time
+				return false;
+			}
+			public Container build() {
+				JPanel cont = new JPanel();
+				Packer pk = new Packer( cont );
+				int y = -1;
+				if( msg.length > 1 ) {
+					JPanel mp = new JPanel();
+					Packer mpk = new Packer( mp );
+					JLabel il = new JLabel();
+					Icon progIcon = new ProgressIcon(il);
+					il.setIcon( progIcon );
+					pk.pack( il ).gridx(0).gridy(0).inset(4,4,4,4);
+					pk.pack( new JPanel() ).gridx(0).gridy(1).filly();
+					pk.pack( mp ).gridx(1).gridy(0).gridh(2).fillboth().inset(4,4,4,4);
+					for( Component m: msg ) {
+						if( m instanceof JScrollPane ) {
+							mpk.pack( m ).gridx(0).gridy(++y).fillboth().inset(2,2,2,2);
+						} else {
+							mpk.pack( m ).gridx(0).gridy(++y).fillx().inset(2,2,2,2);
+						}
+					}
+				} else {
+					for( Component m: msg ) {
+						JLabel il = new JLabel();
+						if( y == -1 ) {
+							Icon progIcon = new ProgressIcon(il);
+							il.setIcon( progIcon );
+						}
+						pk.pack( m ).gridx(0).gridy(++y).inset(4,4,4,4).fillx();
+					}
 				}
-			});
-		}
-//		pk.pack( new JLabel( msg ) ).gridx(1).gridy(0).inset(40,40,40,40);
-		dlg.pack();
-		dlg.setLocationRelativeTo( frame );
+				return cont;
+			}
+		});
+	}
+
+	/**
+	 *  Creates the content pane of a progress dialog when it is finally shown,
+	 *  or fills in the one kept with a pooled dialog.
+	 */
+	private static interface DialogContent {
+		public Container build();
+		/**
+		 *  Change the messages in a content pane from a pooled dialog.
+		 *  @return false, having changed nothing, if the pane can't be reused
+		 */
+		public boolean update( Container cont );
+	}
+
+	/**
+	 *  Arranges for the dialog to be shown in the EDT once {@link #getDialogDelay()}
+	 *  has passed after <code>start()</code>, unless <code>finished()</code> has
+	 *  already been called by then.
+	 *  @param hideOnCancel whether to hide the dialog before calling the CancelHandler
+	 */
+	private void requestDialog( final boolean block, final CancelHandler h,
+			final boolean hideOnCancel, final String title, final DialogContent content ) {
 		dlgOpen = true;
-		new Thread() {
+		Runnable req = new Runnable() {
 			public void run() {
-				log.fine("displaying dialog: "+dlg );
-				if( dlgOpen ) {
-					dlg.setVisible(true);
-					if( block && dlg != null ) {
-						dlg.dispose();
-					}
+				if( !dlgOpen )
+					return;
+				int delay = getDialogDelay();
+				if( delay <= 0 ) {
+					displayDialog( block, h, hideOnCancel, title, content );
+					return;
 				}
+				dlgTimer = new javax.swing.Timer( delay, new ActionListener() {
+					public void actionPerformed( ActionEvent ev ) {
+						dlgTimer = null;
+						if( dlgOpen )
+							displayDialog( block, h, hideOnCancel, title, content );
+					}
+				});
+				dlgTimer.setRepeats( false );
+				dlgTimer.start();
 			}
-		}.start();
+		};
+		if( dlgStarted )
+			SwingUtilities.invokeLater( req );
+		else
+			dlgRequest = req;
 	}
-	
+
 	/**
-	 *  @param block passed to JDialog contructor to specify if it is a blocking dialog
+	 *  Called as this instance starts, to start the wait for the dialog
+	 *  asked for by <code>showDialog()</code>, if any.
+	 */
+	private void startDialog() {
+		dlgStarted = true;
+		Runnable req = dlgRequest;
+		dlgRequest = null;
+		if( req != null )
+			SwingUtilities.invokeLater( req );
+	}
+
+	boolean launch() {
+		startDialog();
+		return super.launch();
+	}
+
+	void joined() {
+		super.joined();
+		startDialog();
+	}
+
+	/**
+	 *  Shows the dialog, reusing a pooled one.  This runs in the EDT.
+	 */
+	private void displayDialog( boolean block, final CancelHandler h,
+			final boolean hideOnCancel, String title, DialogContent content ) {
+		final JDialog d = acquireDialog( frame, block, content );
+		d.setTitle( title );
+		d.setDefaultCloseOperation( block ? JDialog.DO_NOTHING_ON_CLOSE : JDialog.HIDE_ON_CLOSE );
+		if( h != null ) {
+			dlgListener = new WindowAdapter() {
+				public void windowClosing( WindowEvent ev ) {
+					if( hideOnCancel )
+						d.setVisible(false);
+					h.cancelled( ComponentUpdateThread.this );
+				}
+			};
+			d.addWindowListener( dlgListener );
+		}
+		// A reused pane only needs laying out again if the new messages changed its size
+		if( !d.getSize().equals( d.getPreferredSize() ) )
+			d.pack();
+		else
+			d.validate();
+		d.setLocationRelativeTo( frame );
+		dlg = d;
+		log.fine("displaying dialog: "+d );
+		// A modal dialog blocks here, in a nested event loop, until finished() hides it
+		d.setVisible(true);
+	}
+
+	/**
+	 *  Get a dialog for the owner from the pool, or create one.  A pooled dialog
+	 *  whose content pane can take the new messages is used first, so that nothing
+	 *  needs to be built.  Otherwise the content is built and put in the dialog.
 	 */
-	protected void openDialog( final boolean block, final CancelHandler h, String title, Component... msg) {
-		if( frame instanceof JDialog )
-			dlg = new JDialog( (JDialog)frame, title, block );
+	private static JDialog acquireDialog( Component owner, boolean block, DialogContent content ) {
+		List<JDialog> pool = dialogPool( owner );
+		int other = -1;
+		for( int i = 0; pool != null && i < pool.size(); ++i ) {
+			JDialog d = pool.get(i);
+			if( d.isModal() != block )
+				continue;
+			if( content.update( d.getContentPane() ) )
+				return pool.remove(i);
+			if( other == -1 )
+				other = i;
+		}
+		JDialog d;
+		if( other >= 0 )
+			d = pool.remove( other );
+		else if( owner instanceof JDialog )
+			d = new JDialog( (JDialog)owner, "", block );
 		else
-			dlg = new JDialog( (JFrame)frame, title, block );
-		Packer pk = new Packer( dlg.getContentPane() );
-		int y = -1;
-		if( msg.length > 1 ) {
-			JPanel mp = new JPanel();
-			Packer mpk = new Packer( mp );
-			JLabel il = new JLabel();
-			Icon progIcon = new ProgressIcon(il);
-			il.setIcon( progIcon );
-			pk.pack( il ).gridx(0).gridy(0).inset(4,4,4,4);
-			pk.pack( new JPanel() ).gridx(0).gridy(1).filly();
-			pk.pack( mp ).gridx(1).gridy(0).gridh(2).fillboth().inset(4,4,4,4);
-			for( Component m: msg ) {
-				if( m instanceof JScrollPane ) {
-					mpk.pack( m ).gridx(0).gridy(++y).fillboth().inset(2,2,2,2);
-				} else {
-					mpk.pack( m ).gridx(0).gridy(++y).fillx().inset(2,2,2,2);
+			d = new JDialog( (JFrame)owner, "", block );
+		d.setContentPane( content.build() );
+		return d;
+	}
+
+	/**
+	 *  Hides the dialog, if it was shown, and puts it back in the pool for
+	 *  its owner.  This runs in the EDT.
+	 */
+	private void releaseDialog() {
+		dlgOpen = false;
+		dlgRequest = null;
+		if( dlgTimer != null ) {
+			dlgTimer.stop();
+			dlgTimer = null;
+		}
+		JDialog d = dlg;
+		dlg = null;
+		if( d == null )
+			return;
+		log.fine("Closing dialog: "+d );
+		d.setVisible(false);
+		if( dlgListener != null ) {
+			d.removeWindowListener( dlgListener );
+			dlgListener = null;
+		}
+		List<JDialog> pool = dialogPool( frame );
+		if( pool != null && pool.size() < MAX_POOLED_DIALOGS ) {
+			log.fine("returning dialog to the pool");
+			// Keep built message panes, but let go of the caller's components
+			if( d.getContentPane() instanceof MessagePane == false )
+				d.setContentPane( new JPanel() );
+			pool.add( d );
+		} else {
+			log.fine("disposing dialog");
+			d.dispose();
+		}
+	}
+
+	/**
+	 *  The pooled dialogs are kept as a client property of the owner's JRootPane,
+	 *  so that they go away with the owner.
+	 *  @return null if there is no owner to pool dialogs for
+	 */
+	@SuppressWarnings("unchecked")
+	private static List<JDialog> dialogPool( Component owner ) {
+		if( owner instanceof RootPaneContainer == false )
+			return null;
+		JRootPane root = ((RootPaneContainer)owner).getRootPane();
+		List<JDialog> pool = (List<JDialog>)root.getClientProperty( DIALOG_POOL );
+		if( pool == null ) {
+			pool = new ArrayList<JDialog>();
+			root.putClientProperty( DIALOG_POOL, pool );
+		}
+		return pool;
+	}
+
+	/**
+	 *  The glass pane installed by {@link BlockingMode#OVERLAY}.  It only claims
+	 *  the areas covered by the blocked components, so the rest of the window keeps
+	 *  working, and a KeyEventDispatcher eats key events sent to anything inside
+	 *  a blocked component.  One instance is shared by all of the workers using a
+	 *  window, and the original glass pane is put back when the last one finishes.
+	 */
+	private static class BlockingGlassPane extends JComponent {
+		private static final long serialVersionUID = 1L;
+		private static final String KEY = BlockingGlassPane.class.getName();
+		private static final List<Component> blocked = new ArrayList<Component>();
+		private static final KeyEventDispatcher keys = new KeyEventDispatcher() {
+			public boolean dispatchKeyEvent( KeyEvent ev ) {
+				for( Component c : blocked ) {
+					if( SwingUtilities.isDescendingFrom( ev.getComponent(), c ) ) {
+						ev.consume();
+						return true;
+					}
 				}
+				return false;
 			}
-		} else {
-			for( Component m: msg ) {
-				JLabel il = new JLabel();
-				if( y == -1 ) {
-					Icon progIcon = new ProgressIcon(il);
-					il.setIcon( progIcon );
+		};
+		private final JRootPane root;
+		private final Component oldGlass;
+		private final boolean oldVisible;
+		private final List<Component> comps = new ArrayList<Component>();
+
+		private BlockingGlassPane( JRootPane root ) {
+			this.root = root;
+			oldGlass = root.getGlassPane();
+			oldVisible = oldGlass.isVisible();
+			setOpaque( false );
+			MouseAdapter eat = new MouseAdapter() {
+				public void mousePressed( MouseEvent ev ) {
+					ev.consume();
 				}
-				pk.pack( m ).gridx(0).gridy(++y).inset(4,4,4,4).fillx();
+			};
+			addMouseListener( eat );
+			addMouseMotionListener( eat );
+			addMouseWheelListener( eat );
+		}
+
+		/**
+		 *  Block input to the passed component.  This must be called in the EDT.
+		 *  @return false if the component is not showing in a JRootPane
+		 */
+		static boolean block( Component c, Cursor crs, String tip ) {
+			JRootPane root = c instanceof RootPaneContainer ?
+				((RootPaneContainer)c).getRootPane() : SwingUtilities.getRootPane( c );
+			if( root == null || !c.isShowing() )
+				return false;
+			BlockingGlassPane gp = (BlockingGlassPane)root.getClientProperty( KEY );
+			if( gp == null ) {
+				gp = new BlockingGlassPane( root );
+				root.putClientProperty( KEY, gp );
+				root.setGlassPane( gp );
+			}
+			gp.comps.add( c );
+			gp.setCursor( crs );
+			gp.setToolTipText( tip );
+			gp.setVisible( true );
+			gp.repaint( gp.regionOf( c ) );
+			if( blocked.isEmpty() ) {
+				KeyboardFocusManager.getCurrentKeyboardFocusManager()
+					.addKeyEventDispatcher( keys );
 			}
+			blocked.add( c );
+			return true;
 		}
-		if( block )
-			dlg.setDefaultCloseOperation(dlg.DO_NOTHING_ON_CLOSE);
-		if( h != null ) {
-			dlg.addWindowListener( new WindowAdapter() {
-				public void windowClosing( WindowEvent ev ) {
-					h.cancelled( ComponentUpdateThread.this );
+
+		/**
+		 *  Undo a {@link #block} of the passed component.  This must be called in the EDT.
+		 */
+		static void unblock( Component c ) {
+			blocked.remove( c );
+			if( blocked.isEmpty() ) {
+				KeyboardFocusManager.getCurrentKeyboardFocusManager()
+					.removeKeyEventDispatcher( keys );
+			}
+			JRootPane root = c instanceof RootPaneContainer ?
+				((RootPaneContainer)c).getRootPane() : SwingUtilities.getRootPane( c );
+			BlockingGlassPane gp = root == null ? null : (BlockingGlassPane)root.getClientProperty( KEY );
+			if( gp == null )
+				return;
+			// The glass pane sits at 0,0 in the root pane
+			root.repaint( gp.regionOf( c ) );
+			gp.comps.remove( c );
+			if( gp.comps.isEmpty() ) {
+				root.putClientProperty( KEY, null );
+				root.setGlassPane( gp.oldGlass );
+				gp.oldGlass.setVisible( gp.oldVisible );
+				gp.setToolTipText( null );
+			}
+		}
+
+		private Rectangle regionOf( Component c ) {
+			if( c instanceof RootPaneContainer || c == root || c.getParent() == null )
+				return new Rectangle( 0, 0, getWidth(), getHeight() );
+			return SwingUtilities.convertRectangle( c.getParent(), c.getBounds(), this );
+		}
+
+		public boolean contains( int x, int y ) {
+			for( Component c : comps ) {
+				if( regionOf( c ).contains( x, y ) )
+					return true;
+			}
+			return false;
+		}
+
+		protected void paintComponent( Graphics g ) {
+			g.setColor( new Color( 128, 128, 128, 48 ) );
+			for( Component c : comps ) {
+				Rectangle r = regionOf( c );
+				g.fillRect( r.x, r.y, r.width, r.height );
+			}
+		}
+	}
+
+	/**
+	 *  Drives all of the {@link ProgressIcon} animation from a single Swing
+	 *  Timer, so the ticks happen in the EDT without blocking any other thread.
+	 *  Icons are only weakly referenced, and are dropped once their component is
+	 *  no longer showing.  An icon puts itself back each time it is painted, and the
+	 *  timer stops whenever there are no icons left to animate.
+	 */
+	private static class IconAnimator {
+		private static final List<WeakReference<ProgressIcon>> icons =
+			new ArrayList<WeakReference<ProgressIcon>>();
+		private static final javax.swing.Timer timer = new javax.swing.Timer( 250,
+			new ActionListener() {
+				public void actionPerformed( ActionEvent ev ) {
+					tick();
 				}
 			});
+
+		/**
+		 *  Animate the passed icon.  This is called in the EDT.
+		 */
+		static void animate( ProgressIcon icon ) {
+			for( WeakReference<ProgressIcon> r : icons ) {
+				if( r.get() == icon )
+					return;
+			}
+			icons.add( new WeakReference<ProgressIcon>( icon ) );
+			if( !timer.isRunning() )
+				timer.start();
 		}
-//		pk.pack( new JLabel( msg ) ).gridx(1).gridy(0).inset(40,40,40,40);
-		dlg.pack();
-		dlg.setLocationRelativeTo( frame );
-		dlgOpen = true;
-		new Thread() {
-			public void run() {
-				log.fine("displaying dialog: "+dlg );
-				if( dlgOpen ) {
-					dlg.setVisible(true);
-					if( block && dlg != null ) {
-						dlg.dispose();
-					}
+
+		private static void tick() {
+			for( int i = icons.size() - 1; i >= 0; --i ) {
+				ProgressIcon icon = icons.get(i).get();
+				if( icon == null || icon.painted == null || !icon.painted.isShowing() ) {
+					icons.remove(i);
+					continue;
 				}
+				icon.painted.repaint( icon.px, icon.py, icon.getIconWidth(), icon.getIconHeight() );
 			}
-		}.start();
+			if( icons.isEmpty() )
+				timer.stop();
+		}
 	}
-	
-	private static Timer timer;
+
 	private static class ProgressIcon implements Icon {
 		int wh = 0;
 		int inc = 2;
 		double rad = 0;
-		TimerTask task;
 		JLabel comp;
-		Object del = new Object() {
-			protected void finalize() {
-				task.cancel();
-			}
-		};
+		// Where this icon was last painted, so that only its bounds are repainted
+		Component painted;
+		int px, py;
 		public ProgressIcon(final JLabel comp) {
 			this( comp, 2 );
 		}
 		public ProgressIcon(final JLabel comp, int inc) {
 			this.comp = comp;
-			if( timer == null ) {
-				timer = new Timer();
-			}
-			task = new TimerTask() {
-				public void run() {
-					try {
-//						System.out.println("Timer fired" );
-						SwingUtilities.invokeAndWait( new Runnable() {
-							public void run() {
-								comp.paintImmediately( comp.getBounds() );
-							}
-						});
-					} catch( Exception ex ) {
-						ex.printStackTrace();
-					}
-				}
-			};
-//			System.out.println("Scheduling painter...");
-			timer.schedule( task, 0, 250 );
 		}
 		public void paintIcon( Component cmp, Graphics g, int x, int y ) {
+			painted = cmp;
+			px = x;
+			py = y;
+			IconAnimator.animate( this );
 //			System.out.println( "Painting icon ("+wh+" > "+inc+") ..."+x+","+y );
 			Color c = new Color( (wh*3)+30, (wh*4)+30, (wh*7)+100 );
 			int iw = getIconWidth();
@@ -844,7 +1298,14 @@ public abstract class ComponentUpdateThread<T> extends SwingWorker<T> {
 	 *  </pre>
 	 */
 	public void setup() {
+		boolean overlay = getBlockingMode() == BlockingMode.OVERLAY && !getEnabled();
 		for( int i = 0; comp != null && i < comp.length; ++i ) {
+			if( overlay && BlockingGlassPane.block( comp[i], waitCrs, setupSet ? setupTip : null ) ) {
+				if( overlaid == null )
+					overlaid = new ArrayList<Component>();
+				overlaid.add( comp[i] );
+				continue;
+			}
 			setCompEnabled( comp[i], false, !getEnabled(), waitCrs, setupSet, setupTip  );
 		}
 		for( int i = 0; act != null && i < act.length; ++i ) {
@@ -865,24 +1326,159 @@ public abstract class ComponentUpdateThread<T> extends SwingWorker<T> {
 	 */
 	public void finished() {
 		log.fine("executing finished");
-		
+		leaveKey();
+		restore( true );
+	}
+
+	/**
+	 *  Start this instance as the only one active for the passed key.  Any
+	 *  instance already started with an equal key is {@link #discard()}ed,
+	 *  so its <code>construct()</code> is interrupted and its <code>finished()</code>
+	 *  is not called.
+	 *  @param key identifies the work which should only have its newest result used
+	 */
+	public void start( Object key ) {
+		this.key = key;
+		ComponentUpdateThread<?> prev = keyed.put( key, this );
+		if( prev != null && prev != this ) {
+			log.fine("superseding "+prev+" for "+key );
+			prev.discard();
+		}
+		start();
+	}
+
+	/**
+	 *  Discard the instance started with the passed key, if it is still active.
+	 *  @return true if there was an instance to discard
+	 */
+	public static boolean cancel( Object key ) {
+		ComponentUpdateThread<?> prev = keyed.remove( key );
+		if( prev == null )
+			return false;
+		prev.discard();
+		return true;
+	}
+
+	/**
+	 *  Overridden to also close the dialog if <code>setup()</code> never ran.
+	 */
+	public void discard() {
+		super.discard();
+		SwingUtilities.invokeLater( new Runnable() {
+			public void run() {
+				releaseDialog();
+			}
+		});
+	}
+
+	/**
+	 *  Called instead of <code>finished()</code> for a discarded instance.  The
+	 *  components and actions are only restored when no newer instance for the
+	 *  same key has taken over, since that instance will restore them when it
+	 *  finishes.  Override and call this method, as with <code>finished()</code>,
+	 *  to undo more of what <code>setup()</code> did.
+	 */
+	protected void discarded() {
+		log.fine("executing discarded");
+		Object k = key;
+		boolean succeeded = k != null && keyed.get( k ) != null && keyed.get( k ) != this;
+		leaveKey();
+		restore( !succeeded );
+	}
+
+	/**
+	 *  Set the cache used by all instances which have not had
+	 *  {@link #setResultCache(ResultCache)} called.
+	 *  @param cache the cache to use, or null to use a shared cache which keeps
+	 *    256 values for 5 minutes
+	 */
+	public static void setDefaultResultCache( ResultCache cache ) {
+		defCache = cache;
+	}
+
+	/**
+	 *  Get the cache used by all instances which have not had
+	 *  {@link #setResultCache(ResultCache)} called.
+	 */
+	public static ResultCache getDefaultResultCache() {
+		ResultCache c = defCache;
+		if( c == null ) {
+			synchronized( ComponentUpdateThread.class ) {
+				if( defCache == null )
+					defCache = new ResultCache( 256, 5, TimeUnit.MINUTES );
+				c = defCache;
+			}
+		}
+		return c;
+	}
+
+	/**
+	 *  Set the cache which {@link #startCached(Object)} uses for this instance.
+	 *  @param cache the cache to use, or null to use {@link #getDefaultResultCache()}
+	 */
+	public void setResultCache( ResultCache cache ) {
+		this.cache = cache;
+	}
+
+	/**
+	 *  Get the cache which {@link #startCached(Object)} uses for this instance.
+	 */
+	public ResultCache getResultCache() {
+		ResultCache c = cache;
+		return c != null ? c : getDefaultResultCache();
+	}
+
+	/**
+	 *  Start this instance using {@link #getResultCache()} to hold the value of
+	 *  <code>construct()</code> for the passed key.  If the cache has a value for the
+	 *  key, <code>finished()</code> is called with it as the value, without calling
+	 *  <code>setup()</code> or starting a background thread.  If another instance is
+	 *  already computing the value, this instance waits for that value instead.  It
+	 *  still runs <code>setup()</code> and shows its dialog while it waits, so its
+	 *  components are blocked until its <code>finished()</code>, as with <code>start()</code>.
+	 *  @param key identifies the value which <code>construct()</code> produces
+	 */
+	public void startCached( Object key ) {
+		ResultCache c = getResultCache();
+		cache = c;
+		cacheKey = key;
+		c.start( key, this );
+	}
+
+	void constructed( boolean ok ) {
+		Object k = cacheKey;
+		if( k != null )
+			cache.completed( k, this, getValue(), ok );
+	}
+
+	private void leaveKey() {
+		Object k = key;
+		if( k != null )
+			keyed.remove( k, this );
+	}
+
+	/**
+	 *  Undoes the work of <code>setup()</code>.
+	 *  @param enable if false, only the overlay and dialog of this instance are removed,
+	 *    and the components and actions are left disabled.
+	 */
+	private void restore( boolean enable ) {
 		log.fine("enable "+(comp != null ? comp.length : 0)+" components");
 		for( int i = 0; comp != null && i < comp.length; ++i ) {
-			setCompEnabled( comp[i], true, !getEnabled(), defCrs, finishedSet, finishTip );
+			if( overlaid != null && overlaid.remove( comp[i] ) ) {
+				BlockingGlassPane.unblock( comp[i] );
+				continue;
+			}
+			if( enable )
+				setCompEnabled( comp[i], true, !getEnabled(), defCrs, finishedSet, finishTip );
 		}
 		log.fine("enable "+(act != null ? act.length : 0)+" actions");
-		for( int i = 0; act != null && i < act.length; ++i ) {
+		for( int i = 0; enable && act != null && i < act.length; ++i ) {
 			setActionEnabled( act[i], true, !getEnabled() );
 		}
 		
 		log.fine("dialog is "+((dlg != null)?"":"not")+" opened");
-		if( dlg != null ) {
-			log.fine("Closing dialog: "+dlg );
-			dlgOpen = false;
-			dlg.setVisible(false);
-			log.fine("disposing dialog and clearing reference");
-			dlg.dispose();
-		}
+		releaseDialog();
 	}
 }
 		
\ No newline at end of file
@@ -0,0 +1,229 @@
+package org.wonderly.swing;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.security.AccessControlContext;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.security.PrivilegedExceptionAction;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.security.auth.Subject;
+
+/**
+ *  This controls how {@link SyncThread} and {@link SwingWorker} carry the context
+ *  ClassLoader and Subject of the creating thread over to the threads which do
+ *  their work.  The mode is chosen with {@link #setDefault(ContextPropagation)} and
+ *  is applied when each instance is constructed.
+ *  <p>
+ *  The {@link #FULL} mode is the historical behavior.  It captures the
+ *  AccessControlContext for every instance, which costs a good deal for very
+ *  small tasks, and those APIs are deprecated on current JDKs.  The
+ *  <code>org.wonderly.swing.example.ContextPropagationBench</code> example
+ *  shows the per-task cost of each mode.
+ */
+public enum ContextPropagation {
+	/**
+	 *  Capture the context ClassLoader, Subject and AccessControlContext
+	 *  for every instance.
+	 */
+	FULL,
+	/**
+	 *  Capture nothing.  The work runs with whatever context the executing
+	 *  thread happens to have.
+	 */
+	NONE,
+	/**
+	 *  Capture as {@link #FULL} does, but only once per creating thread.  The
+	 *  snapshot is reused for as long as that thread's context ClassLoader is
+	 *  unchanged.  Call {@link #clearSnapshot()} after changing the Subject that
+	 *  the thread runs as.
+	 */
+	SNAPSHOT,
+	/**
+	 *  Capture the Subject with <code>Subject.current()</code> and run the work
+	 *  with <code>Subject.callAs()</code>, which current JDKs carry in scoped
+	 *  values, instead of using the AccessControlContext.  On JDKs before 18,
+	 *  which don't have these methods, this behaves as {@link #FULL}.
+	 */
+	SCOPED;
+
+	private static final Logger log = Logger.getLogger( ContextPropagation.class.getName() );
+	private static volatile ContextPropagation def = FULL;
+	private static final ThreadLocal<Context> snapshot = new ThreadLocal<Context>();
+	private static final Method current, callAs;
+	static {
+		Method cur = null, call = null;
+		try {
+			cur = Subject.class.getMethod( "current" );
+			call = Subject.class.getMethod( "callAs", Subject.class, Callable.class );
+		} catch( NoSuchMethodException ex ) {
+			cur = call = null;
+		}
+		current = cur;
+		callAs = call;
+	}
+
+	/**
+	 *  Set the mode used by instances constructed from now on.
+	 *  @param how the mode to use, null restores {@link #FULL}
+	 */
+	public static void setDefault( ContextPropagation how ) {
+		def = how == null ? FULL : how;
+	}
+
+	/**
+	 *  Get the mode used by instances as they are constructed.
+	 */
+	public static ContextPropagation getDefault() {
+		return def;
+	}
+
+	/**
+	 *  Forget the {@link #SNAPSHOT} for the calling thread, so that the next
+	 *  capture in this thread sees its current context.
+	 */
+	public static void clearSnapshot() {
+		snapshot.remove();
+	}
+
+	/**
+	 *  Capture the context of the calling thread according to this mode.
+	 */
+	public Context capture() {
+		switch( this ) {
+			case NONE:
+				return Context.EMPTY;
+			case SNAPSHOT:
+				ClassLoader ld = Thread.currentThread().getContextClassLoader();
+				Context c = snapshot.get();
+				if( c == null || c.loader != ld ) {
+					c = captureFull();
+					snapshot.set( c );
+				}
+				return c;
+			case SCOPED:
+				if( current != null )
+					return captureScoped();
+				return captureFull();
+			default:
+				return captureFull();
+		}
+	}
+
+	private static Context captureFull() {
+		ClassLoader ld = Thread.currentThread().getContextClassLoader();
+		final AccessControlContext rctx[] = new AccessControlContext[1];
+		try {
+			Subject subj = AccessController.doPrivileged( new PrivilegedExceptionAction<Subject>() {
+				public Subject run() throws Exception {
+					return Subject.getSubject( rctx[0] = AccessController.getContext() );
+				}
+			});
+			return new Context( true, ld, subj, rctx[0], false );
+		} catch( Exception ex ) {
+			// Newer JDKs refuse getSubject() without a SecurityManager
+			if( log.isLoggable( Level.FINE ) )
+				log.log( Level.FINE, ex.toString(), ex );
+			return new Context( true, ld, null, null, false );
+		}
+	}
+
+	private static Context captureScoped() {
+		ClassLoader ld = Thread.currentThread().getContextClassLoader();
+		try {
+			return new Context( true, ld, (Subject)current.invoke( null ), null, true );
+		} catch( Exception ex ) {
+			if( log.isLoggable( Level.FINE ) )
+				log.log( Level.FINE, ex.toString(), ex );
+			return new Context( true, ld, null, null, true );
+		}
+	}
+
+	/**
+	 *  A captured context which work can be run in.
+	 */
+	public static final class Context {
+		static final Context EMPTY = new Context( false, null, null, null, false );
+		private final boolean setLoader;
+		private final ClassLoader loader;
+		private final Subject subj;
+		private final AccessControlContext acc;
+		private final boolean scoped;
+
+		Context( boolean setLoader, ClassLoader loader, Subject subj,
+				AccessControlContext acc, boolean scoped ) {
+			this.setLoader = setLoader;
+			this.loader = loader;
+			this.subj = subj;
+			this.acc = acc;
+			this.scoped = scoped;
+		}
+
+		/**
+		 *  Get the captured Subject
+		 *  @return null if there was none, or it was not captured
+		 */
+		public Subject getSubject() {
+			return subj;
+		}
+
+		/**
+		 *  Check if there is nothing to establish, so that work can be run directly.
+		 */
+		public boolean isEmpty() {
+			return !setLoader && subj == null;
+		}
+
+		/**
+		 *  Run the passed action with the captured ClassLoader as the context
+		 *  ClassLoader and as the captured Subject.
+		 *  @return the value returned by the action
+		 */
+		public <T> T call( final PrivilegedAction<T> act ) {
+			Thread th = Thread.currentThread();
+			ClassLoader ld = null;
+			boolean swap = false;
+			if( setLoader ) {
+				ld = th.getContextClassLoader();
+				swap = ld != loader;
+				if( swap )
+					th.setContextClassLoader( loader );
+			}
+			try {
+				if( subj == null )
+					return act.run();
+				if( scoped )
+					return callAs( act );
+				return Subject.doAsPrivileged( subj, act, acc );
+			} finally {
+				if( swap )
+					th.setContextClassLoader( ld );
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private <T> T callAs( final PrivilegedAction<T> act ) {
+			try {
+				return (T)callAs.invoke( null, subj, new Callable<T>() {
+					public T call() {
+						return act.run();
+					}
+				});
+			} catch( InvocationTargetException ex ) {
+				Throwable th = ex.getTargetException();
+				if( th instanceof CompletionException && th.getCause() != null )
+					th = th.getCause();
+				if( th instanceof RuntimeException )
+					throw (RuntimeException)th;
+				if( th instanceof Error )
+					throw (Error)th;
+				throw new RuntimeException( th );
+			} catch( IllegalAccessException ex ) {
+				throw new RuntimeException( ex );
+			}
+		}
+	}
+}
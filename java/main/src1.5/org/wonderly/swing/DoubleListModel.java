@@ -0,0 +1,192 @@
+package org.wonderly.swing;
+
+import java.util.Arrays;
+
+/**
+ *  A list model holding double values in a growable <code>double[]</code>,
+ *  for long series of numbers which would take several times the memory as
+ *  a <code>VectorListModel&lt;Double&gt;</code>.  Values are only boxed when
+ *  {@link #getElementAt(int)} is called to render them.  The bulk methods
+ *  copy whole arrays in and fire one event for them.
+ *  <pre>
+ *  DoubleListModel model = new DoubleListModel();
+ *  JList list = new JList( model );
+ *  ...
+ *  model.addAll( samples, 0, cnt );
+ *  </pre>
+ *  @see PrimitiveListModel
+ */
+public class DoubleListModel extends PrimitiveListModel<Double> {
+	private static final long serialVersionUID = 1L;
+	private double[] data;
+
+	/**
+	 *  Create an empty model.
+	 */
+	public DoubleListModel() {
+		this( 16 );
+	}
+
+	/**
+	 *  Create an empty model with room for the passed number of values.
+	 */
+	public DoubleListModel( int capacity ) {
+		data = new double[ capacity ];
+	}
+
+	/**
+	 *  Create a model holding a copy of the passed values.
+	 */
+	public DoubleListModel( double[] values ) {
+		data = values.clone();
+		size = values.length;
+	}
+
+	Object array() {
+		return data;
+	}
+
+	void array( Object arr ) {
+		data = (double[])arr;
+	}
+
+	Object newArray( int len ) {
+		return new double[ len ];
+	}
+
+	Double box( int index ) {
+		return Double.valueOf( data[index] );
+	}
+
+	void clearRange( int from, int to ) {
+		Arrays.fill( data, from, to, 0 );
+	}
+
+	/**
+	 *  Get the value at the passed index, without boxing it.
+	 */
+	public double get( int index ) {
+		check( index );
+		return data[index];
+	}
+
+	/**
+	 *  Replace the value at the passed index.
+	 *  @return the value which was replaced
+	 */
+	public double set( int index, double value ) {
+		check( index );
+		double rv = data[index];
+		data[index] = value;
+		fireContentsChanged( this, index, index );
+		return rv;
+	}
+
+	/**
+	 *  Replace <code>len</code> values starting at the passed index with
+	 *  values from the passed array, firing one event for all of them.
+	 */
+	public void set( int index, double[] values, int off, int len ) {
+		if( len == 0 )
+			return;
+		check( index );
+		check( index + len - 1 );
+		System.arraycopy( values, off, data, index, len );
+		fireContentsChanged( this, index, index + len - 1 );
+	}
+
+	/**
+	 *  Add a value at the end.
+	 */
+	public void add( double value ) {
+		if( size == data.length )
+			ensureCapacity( size + 1 );
+		data[size] = value;
+		++size;
+		fireIntervalAdded( this, size-1, size-1 );
+	}
+
+	/**
+	 *  Insert a value at the passed index.
+	 */
+	public void add( int index, double value ) {
+		open( index, 1 );
+		data[index] = value;
+		fireIntervalAdded( this, index, index );
+	}
+
+	/**
+	 *  Add all of the passed values at the end.
+	 */
+	public void addAll( double[] values ) {
+		addAll( size, values, 0, values.length );
+	}
+
+	/**
+	 *  Add <code>len</code> values from the passed array at the end.
+	 */
+	public void addAll( double[] values, int off, int len ) {
+		addAll( size, values, off, len );
+	}
+
+	/**
+	 *  Insert <code>len</code> values from the passed array at the passed
+	 *  index, firing one event for all of them.
+	 */
+	public void addAll( int index, double[] values, int off, int len ) {
+		if( len == 0 )
+			return;
+		open( index, len );
+		System.arraycopy( values, off, data, index, len );
+		fireIntervalAdded( this, index, index + len - 1 );
+	}
+
+	/**
+	 *  Get the index of the first occurrence of the passed value.
+	 *  @return -1 if it is not in the list
+	 */
+	public int indexOf( double value ) {
+		for( int i = 0; i < size; ++i ) {
+			if( data[i] == value )
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 *  Check if the passed value is in the list.
+	 */
+	public boolean contains( double value ) {
+		return indexOf( value ) >= 0;
+	}
+
+	/**
+	 *  Get a copy of the values.
+	 */
+	public double[] toArray() {
+		return Arrays.copyOf( data, size );
+	}
+
+	/**
+	 *  Replace all of the values with the passed array, which is used
+	 *  directly rather than copied, and fire one <code>contentsChanged</code>
+	 *  event for them.
+	 */
+	public void setContents( double[] values ) {
+		int oldSize = size;
+		data = values;
+		size = values.length;
+		int last = Math.max( oldSize, size ) - 1;
+		if( last >= 0 )
+			fireContentsChanged( this, 0, last );
+	}
+
+	/**
+	 *  Sort the values into ascending order.
+	 */
+	public void sort() {
+		Arrays.sort( data, 0, size );
+		if( size > 0 )
+			fireContentsChanged( this, 0, size-1 );
+	}
+}
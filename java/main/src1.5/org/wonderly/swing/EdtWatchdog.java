@@ -0,0 +1,292 @@
+package org.wonderly.swing;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.SwingUtilities;
+
+/**
+ *  This class measures how long background threads wait for the EDT in the
+ *  <code>invokeAndWait</code> hand offs done by {@link SyncThread#runInSwing(Runnable, boolean)}
+ *  and {@link SimpleProgress}, and reports waits which go on for too long.
+ *  <p>
+ *  When a wait passes {@link #getThreshold()}, the stack of the EDT is sampled
+ *  and passed, along with the Runnable being waited on and the waiting thread,
+ *  to the {@link StallListener}s.  By default, the stall is logged at the
+ *  WARNING level.  All waits are recorded in the histogram returned by
+ *  {@link #getWaitHistogram()}.
+ *  <p>
+ *  The timed {@link #invokeAndWait(Runnable, long, TimeUnit)} lets a worker give
+ *  up on the EDT and do something else instead of hanging.
+ *  <pre>
+ *  EdtWatchdog.setThreshold( 250 );
+ *  EdtWatchdog.setEnabled( true );
+ *  </pre>
+ */
+public final class EdtWatchdog {
+	private static final Logger log = Logger.getLogger( EdtWatchdog.class.getName() );
+	private static volatile boolean enabled = Boolean.getBoolean( "org.wonderly.swing.edtwatchdog" );
+	private static volatile long threshold = 500;
+	private static volatile Thread edt;
+	private static ScheduledExecutorService checker;
+	private static final ConcurrentLinkedQueue<HandOff> waiting = new ConcurrentLinkedQueue<HandOff>();
+	private static final ConcurrentLinkedQueue<StallListener> listeners = new ConcurrentLinkedQueue<StallListener>();
+	private static final WorkerMetrics.Histogram waits = new WorkerMetrics.Histogram();
+
+	/**
+	 *  Is told about waits for the EDT which have passed the threshold.
+	 */
+	public static interface StallListener {
+		/**
+		 *  Called from the watchdog thread, once per stalled hand off, whether the
+		 *  EDT has not got to the Runnable yet or is taking a long time to run it.
+		 *  @param task the Runnable which is being waited on
+		 *  @param waiter the thread waiting for it
+		 *  @param millis how long it has waited so far
+		 *  @param edtStack what the EDT was doing, or null if the EDT is not known yet
+		 */
+		public void stalled( Runnable task, Thread waiter, long millis, StackTraceElement[] edtStack );
+	}
+
+	private static final StallListener logger = new StallListener() {
+		public void stalled( Runnable task, Thread waiter, long millis, StackTraceElement[] edtStack ) {
+			Throwable where = new Throwable( "EDT stack" );
+			if( edtStack != null )
+				where.setStackTrace( edtStack );
+			log.log( Level.WARNING, waiter.getName()+" has waited "+millis+
+				"ms for the EDT to run "+task, edtStack != null ? where : null );
+		}
+	};
+
+	static {
+		listeners.add( logger );
+	}
+
+	private EdtWatchdog() {
+	}
+
+	/**
+	 *  Turn measuring and stall reporting on or off.  It can also be turned
+	 *  on with the <code>org.wonderly.swing.edtwatchdog</code> system property.
+	 */
+	public static synchronized void setEnabled( boolean how ) {
+		enabled = how;
+		if( how && checker == null ) {
+			checker = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+				public Thread newThread( Runnable r ) {
+					Thread th = new Thread( r, "EdtWatchdog" );
+					th.setDaemon( true );
+					return th;
+				}
+			});
+			long tick = Math.max( 10, threshold / 2 );
+			checker.scheduleWithFixedDelay( new Runnable() {
+				public void run() {
+					check();
+				}
+			}, tick, tick, TimeUnit.MILLISECONDS );
+			// The EDT may already be stuck, so don't wait for it to say who it is
+			edt = findEdt();
+			SwingUtilities.invokeLater( new Runnable() {
+				public void run() {
+					edt = Thread.currentThread();
+				}
+			});
+		} else if( !how && checker != null ) {
+			checker.shutdown();
+			checker = null;
+		}
+	}
+
+	/**
+	 *  Check whether measuring and stall reporting is on.
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 *  Set how long a wait for the EDT may take before it is reported.
+	 *  This should be set before {@link #setEnabled(boolean)} is called.
+	 *  @param millis the threshold in milliseconds
+	 */
+	public static void setThreshold( long millis ) {
+		if( millis < 1 )
+			throw new IllegalArgumentException( "threshold must be positive: "+millis );
+		threshold = millis;
+	}
+
+	/**
+	 *  Get how long a wait for the EDT may take before it is reported.
+	 */
+	public static long getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 *  Add a listener to be told about stalls.
+	 */
+	public static void addStallListener( StallListener lis ) {
+		listeners.add( lis );
+	}
+
+	/**
+	 *  Remove a listener.  Removing the default logging listener stops the logging.
+	 */
+	public static void removeStallListener( StallListener lis ) {
+		listeners.remove( lis );
+	}
+
+	/**
+	 *  Get the default listener which logs stalls, so that it can be removed.
+	 */
+	public static StallListener getLoggingListener() {
+		return logger;
+	}
+
+	/**
+	 *  Get the histogram of how long hand offs waited for the EDT, while enabled.
+	 */
+	public static WorkerMetrics.Histogram getWaitHistogram() {
+		return waits;
+	}
+
+	/**
+	 *  Run the passed Runnable in the EDT and wait for it, as
+	 *  <code>SwingUtilities.invokeAndWait</code> does, measuring the wait when enabled.
+	 *  If called in the EDT, the Runnable is just run.
+	 */
+	public static void invokeAndWait( Runnable r ) throws InterruptedException, InvocationTargetException {
+		if( SwingUtilities.isEventDispatchThread() ) {
+			r.run();
+			return;
+		}
+		if( !enabled ) {
+			SwingUtilities.invokeAndWait( r );
+			return;
+		}
+		HandOff h = new HandOff( r );
+		h.await( -1 );
+	}
+
+	/**
+	 *  Run the passed Runnable in the EDT, waiting at most the passed time for it
+	 *  to complete.  If the EDT has not started the Runnable when the time runs out,
+	 *  it will not be run at all.  If it has started, this still returns when the
+	 *  time runs out, and the Runnable finishes on its own later, with anything
+	 *  it throws being lost.  If called in the EDT, the Runnable is just run.
+	 *  @return true if the Runnable completed, false if the time ran out, in which
+	 *    case the Runnable has either been dropped or may still be running
+	 */
+	public static boolean invokeAndWait( Runnable r, long timeout, TimeUnit unit )
+			throws InterruptedException, InvocationTargetException {
+		if( SwingUtilities.isEventDispatchThread() ) {
+			r.run();
+			return true;
+		}
+		HandOff h = new HandOff( r );
+		return h.await( unit.toNanos( timeout ) );
+	}
+
+	/**
+	 *  Report all the hand offs which have waited longer than the threshold.
+	 */
+	private static void check() {
+		long now = System.nanoTime();
+		long limit = TimeUnit.MILLISECONDS.toNanos( threshold );
+		for( HandOff h : waiting ) {
+			if( h.reported || h.state.get() >= HandOff.DONE || now - h.posted < limit )
+				continue;
+			h.reported = true;
+			Thread th = edt;
+			if( th == null || !th.isAlive() )
+				th = edt = findEdt();
+			StackTraceElement[] stack = th == null ? null : th.getStackTrace();
+			long millis = TimeUnit.NANOSECONDS.toMillis( now - h.posted );
+			for( StallListener lis : listeners ) {
+				try {
+					lis.stalled( h.task, h.waiter, millis, stack );
+				} catch( RuntimeException ex ) {
+					log.log( Level.SEVERE, ex.toString(), ex );
+				}
+			}
+		}
+	}
+
+	/**
+	 *  Find the EDT from outside of it, by its thread name.
+	 *  @return null if there is no EDT running now
+	 */
+	private static Thread findEdt() {
+		for( Thread th : Thread.getAllStackTraces().keySet() ) {
+			if( th.getName().startsWith( "AWT-EventQueue" ) )
+				return th;
+		}
+		return null;
+	}
+
+	/**
+	 *  A Runnable posted to the EDT which can be waited on with a timeout,
+	 *  and abandoned if it has not started when the time runs out.
+	 */
+	private static class HandOff implements Runnable {
+		static final int PENDING = 0, RUNNING = 1, DONE = 2, ABANDONED = 3;
+		final AtomicInteger state = new AtomicInteger( PENDING );
+		final CountDownLatch done = new CountDownLatch(1);
+		final Runnable task;
+		final Thread waiter = Thread.currentThread();
+		final long posted = System.nanoTime();
+		volatile boolean reported;
+		Throwable failure;
+
+		HandOff( Runnable task ) {
+			this.task = task;
+		}
+
+		public void run() {
+			edt = Thread.currentThread();
+			if( !state.compareAndSet( PENDING, RUNNING ) )
+				return;
+			try {
+				task.run();
+			} catch( Throwable ex ) {
+				failure = ex;
+			} finally {
+				state.set( DONE );
+				done.countDown();
+			}
+		}
+
+		boolean await( long nanos ) throws InterruptedException, InvocationTargetException {
+			boolean watch = enabled;
+			if( watch )
+				waiting.add( this );
+			try {
+				SwingUtilities.invokeLater( this );
+				if( nanos < 0 ) {
+					done.await();
+				} else if( !done.await( nanos, TimeUnit.NANOSECONDS ) ) {
+					// Keep the EDT from starting it, unless it just finished
+					state.compareAndSet( PENDING, ABANDONED );
+					if( state.get() != DONE )
+						return false;
+				}
+			} finally {
+				if( watch ) {
+					waiting.remove( this );
+					waits.record( System.nanoTime() - posted );
+				}
+			}
+			if( failure != null )
+				throw new InvocationTargetException( failure );
+			return true;
+		}
+	}
+}
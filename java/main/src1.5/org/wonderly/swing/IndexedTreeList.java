@@ -0,0 +1,278 @@
+package org.wonderly.swing;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.Random;
+
+/**
+ *  A List which keeps its elements in chunks of up to 64, held in a balanced
+ *  tree which knows how many elements are below each node.  This makes
+ *  <code>get</code>, <code>set</code>, and <code>add</code> or <code>remove</code>
+ *  at any index take O(log n) time, rather than shifting everything after the
+ *  index as an ArrayList does.  The chunks keep the memory used per element
+ *  close to that of an ArrayList.
+ *  <p>
+ *  The tree is a treap, with random priorities keeping it balanced on
+ *  average.  This class is not thread safe.
+ *  @see TreeListModel
+ */
+public class IndexedTreeList<T> extends AbstractList<T> implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private static final int CHUNK = 64;
+	private final Random rand = new Random();
+	private Node root;
+
+	private static final class Node implements Serializable {
+		private static final long serialVersionUID = 1L;
+		Object[] items = new Object[CHUNK];
+		int count, size, prio;
+		Node left, right;
+
+		Node( int prio ) {
+			this.prio = prio;
+		}
+
+		void fix() {
+			size = size( left ) + count + size( right );
+		}
+	}
+
+	private static int size( Node n ) {
+		return n == null ? 0 : n.size;
+	}
+
+	/**
+	 *  Create an empty list.
+	 */
+	public IndexedTreeList() {
+	}
+
+	/**
+	 *  Create a list holding the passed elements, in O(n) time.
+	 */
+	public IndexedTreeList( Collection<? extends T> c ) {
+		Object[] all = c.toArray();
+		int chunks = ( all.length + CHUNK - 1 ) / CHUNK;
+		if( chunks == 0 )
+			return;
+		// Heap ordered priorities, handed out breadth first, make a valid treap
+		int[] prios = new int[ chunks ];
+		for( int i = 0; i < chunks; ++i )
+			prios[i] = rand.nextInt( Integer.MAX_VALUE );
+		java.util.Arrays.sort( prios );
+		Node[] nodes = new Node[ chunks ];
+		for( int i = 0; i < chunks; ++i ) {
+			Node n = nodes[i] = new Node( 0 );
+			n.count = Math.min( CHUNK, all.length - i * CHUNK );
+			System.arraycopy( all, i * CHUNK, n.items, 0, n.count );
+		}
+		root = build( nodes, 0, chunks - 1 );
+		java.util.LinkedList<Node> q = new java.util.LinkedList<Node>();
+		q.add( root );
+		for( int p = chunks - 1; !q.isEmpty(); --p ) {
+			Node n = q.removeFirst();
+			n.prio = prios[p];
+			if( n.left != null )
+				q.add( n.left );
+			if( n.right != null )
+				q.add( n.right );
+		}
+	}
+
+	private static Node build( Node[] nodes, int lo, int hi ) {
+		if( lo > hi )
+			return null;
+		int mid = ( lo + hi ) >>> 1;
+		Node n = nodes[mid];
+		n.left = build( nodes, lo, mid - 1 );
+		n.right = build( nodes, mid + 1, hi );
+		n.fix();
+		return n;
+	}
+
+	public int size() {
+		return size( root );
+	}
+
+	@SuppressWarnings("unchecked")
+	public T get( int index ) {
+		check( index, size() );
+		Node n = root;
+		while( true ) {
+			int ls = size( n.left );
+			if( index < ls ) {
+				n = n.left;
+			} else if( index < ls + n.count ) {
+				return (T)n.items[ index - ls ];
+			} else {
+				index -= ls + n.count;
+				n = n.right;
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public T set( int index, T element ) {
+		check( index, size() );
+		Node n = root;
+		while( true ) {
+			int ls = size( n.left );
+			if( index < ls ) {
+				n = n.left;
+			} else if( index < ls + n.count ) {
+				T old = (T)n.items[ index - ls ];
+				n.items[ index - ls ] = element;
+				return old;
+			} else {
+				index -= ls + n.count;
+				n = n.right;
+			}
+		}
+	}
+
+	public void add( int index, T element ) {
+		check( index, size() + 1 );
+		root = insert( root, index, element );
+		++modCount;
+	}
+
+	public T remove( int index ) {
+		check( index, size() );
+		Object[] removed = new Object[1];
+		root = delete( root, index, removed );
+		++modCount;
+		@SuppressWarnings("unchecked")
+		T old = (T)removed[0];
+		return old;
+	}
+
+	public void clear() {
+		root = null;
+		++modCount;
+	}
+
+	private void check( int index, int limit ) {
+		if( index < 0 || index >= limit )
+			throw new IndexOutOfBoundsException( "Index: "+index+", Size: "+size() );
+	}
+
+	private Node insert( Node n, int index, Object element ) {
+		if( n == null ) {
+			n = new Node( rand.nextInt( Integer.MAX_VALUE ) );
+			n.items[0] = element;
+			n.count = 1;
+			n.size = 1;
+			return n;
+		}
+		int ls = size( n.left );
+		if( index < ls || ( index == ls && n.left != null && n.count == CHUNK ) ) {
+			n.left = insert( n.left, index, element );
+			if( n.left.prio > n.prio )
+				n = rotateRight( n );
+		} else if( index <= ls + n.count ) {
+			int at = index - ls;
+			if( n.count == CHUNK ) {
+				// Move the upper half to a new chunk just after this one
+				Node upper = new Node( rand.nextInt( Integer.MAX_VALUE ) );
+				int half = CHUNK / 2;
+				System.arraycopy( n.items, half, upper.items, 0, CHUNK - half );
+				java.util.Arrays.fill( n.items, half, CHUNK, null );
+				upper.count = CHUNK - half;
+				upper.size = upper.count;
+				n.count = half;
+				if( at <= half ) {
+					put( n, at, element );
+				} else {
+					put( upper, at - half, element );
+					upper.size = upper.count;
+				}
+				n.right = insertFirst( n.right, upper );
+				n.fix();
+				if( n.right.prio > n.prio )
+					n = rotateLeft( n );
+				return n;
+			}
+			put( n, at, element );
+		} else {
+			n.right = insert( n.right, index - ls - n.count, element );
+			if( n.right.prio > n.prio )
+				n = rotateLeft( n );
+		}
+		n.fix();
+		return n;
+	}
+
+	private static void put( Node n, int at, Object element ) {
+		System.arraycopy( n.items, at, n.items, at + 1, n.count - at );
+		n.items[at] = element;
+		++n.count;
+	}
+
+	/**
+	 *  Add the passed chunk before everything in the passed subtree.
+	 */
+	private static Node insertFirst( Node n, Node chunk ) {
+		if( n == null )
+			return chunk;
+		n.left = insertFirst( n.left, chunk );
+		if( n.left.prio > n.prio )
+			n = rotateRight( n );
+		n.fix();
+		return n;
+	}
+
+	private static Node delete( Node n, int index, Object[] removed ) {
+		int ls = size( n.left );
+		if( index < ls ) {
+			n.left = delete( n.left, index, removed );
+		} else if( index < ls + n.count ) {
+			int at = index - ls;
+			removed[0] = n.items[at];
+			System.arraycopy( n.items, at + 1, n.items, at, n.count - at - 1 );
+			n.items[ --n.count ] = null;
+			if( n.count == 0 )
+				return merge( n.left, n.right );
+		} else {
+			n.right = delete( n.right, index - ls - n.count, removed );
+		}
+		n.fix();
+		return n;
+	}
+
+	/**
+	 *  Join two subtrees, where everything in <code>a</code> comes first.
+	 */
+	private static Node merge( Node a, Node b ) {
+		if( a == null )
+			return b;
+		if( b == null )
+			return a;
+		if( a.prio > b.prio ) {
+			a.right = merge( a.right, b );
+			a.fix();
+			return a;
+		}
+		b.left = merge( a, b.left );
+		b.fix();
+		return b;
+	}
+
+	private static Node rotateRight( Node n ) {
+		Node l = n.left;
+		n.left = l.right;
+		l.right = n;
+		n.fix();
+		l.fix();
+		return l;
+	}
+
+	private static Node rotateLeft( Node n ) {
+		Node r = n.right;
+		n.right = r.left;
+		r.left = n;
+		n.fix();
+		r.fix();
+		return r;
+	}
+}
@@ -47,6 +47,10 @@ OF THE POSSIBILITY OF SUCH DAMAGE.
  * </pre>
  *
  *  to remove the text from the button.
+ *  <p>
+ *  Actions which start a worker can use a {@link WorkerTrigger} in
+ *  <code>actionPerformed</code> to keep repeated clicks from starting
+ *  a worker for each one.
  *
  *  @author Gregg Wonderly <a href="mailto:gregg.wonderly@pobox.com">gregg.wonderly@pobox.com</a>
  */
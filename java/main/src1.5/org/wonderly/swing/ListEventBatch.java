@@ -0,0 +1,144 @@
+package org.wonderly.swing;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.event.ListDataEvent;
+
+/**
+ *  Collects the ListDataEvents which a list model would fire between
+ *  <code>beginUpdate()</code> and <code>endUpdate()</code>, merging neighboring
+ *  events of the same kind, so that the model can fire just a few events once
+ *  the update is over.  When too many separate events are collected, they are
+ *  replaced by one <code>contentsChanged</code> from the first changed index,
+ *  and one event for the change in size.
+ *  @see ListListModel#beginUpdate()
+ *  @see VectorListModel#beginUpdate()
+ */
+class ListEventBatch implements Serializable {
+	private static final long serialVersionUID = 1L;
+	static final int ADDED = ListDataEvent.INTERVAL_ADDED;
+	static final int REMOVED = ListDataEvent.INTERVAL_REMOVED;
+	static final int CHANGED = ListDataEvent.CONTENTS_CHANGED;
+
+	/** The most separate events which are fired as they are */
+	private static final int MAX_EVENTS = 16;
+
+	private final List<int[]> events = new ArrayList<int[]>();
+	private int depth, oldSize, lo;
+	private boolean overflow;
+
+	/**
+	 *  Start collecting, or nest inside an update already in progress.
+	 *  @param size the size of the model now
+	 */
+	void begin( int size ) {
+		if( depth++ > 0 )
+			return;
+		oldSize = size;
+		lo = Integer.MAX_VALUE;
+		overflow = false;
+		events.clear();
+	}
+
+	/**
+	 *  Check if events are being collected.
+	 */
+	boolean isActive() {
+		return depth > 0;
+	}
+
+	/**
+	 *  Note that the list may have changed anywhere, as when the list
+	 *  was changed directly rather than through the model.
+	 */
+	void touchAll() {
+		overflow = true;
+		lo = 0;
+		events.clear();
+	}
+
+	/**
+	 *  Collect an event.
+	 */
+	void record( int type, int i0, int i1 ) {
+		if( i1 < i0 ) {
+			int t = i0;
+			i0 = i1;
+			i1 = t;
+		}
+		lo = Math.min( lo, Math.max( 0, i0 ) );
+		if( overflow )
+			return;
+		if( !events.isEmpty() && merge( events.get( events.size() - 1 ), type, i0, i1 ) )
+			return;
+		if( events.size() == MAX_EVENTS ) {
+			overflow = true;
+			events.clear();
+			return;
+		}
+		events.add( new int[] { type, i0, i1 } );
+	}
+
+	/**
+	 *  Fold the event into the last one if they describe one change.
+	 */
+	private static boolean merge( int[] last, int type, int i0, int i1 ) {
+		if( last[0] != type )
+			return false;
+		int n = i1 - i0 + 1;
+		switch( type ) {
+			case ADDED:
+				// Inserted inside or just after the last insert
+				if( i0 >= last[1] && i0 <= last[2] + 1 ) {
+					last[2] += n;
+					return true;
+				}
+				return false;
+			case REMOVED:
+				// Removed at the same place again, or just before it
+				if( i0 == last[1] ) {
+					last[2] += n;
+					return true;
+				} else if( i1 + 1 == last[1] ) {
+					last[1] = i0;
+					return true;
+				}
+				return false;
+			default:
+				if( i0 <= last[2] + 1 && i1 + 1 >= last[1] ) {
+					last[1] = Math.min( last[1], i0 );
+					last[2] = Math.max( last[2], i1 );
+					return true;
+				}
+				return false;
+		}
+	}
+
+	/**
+	 *  End an update.
+	 *  @param newSize the size of the model now
+	 *  @return the events to fire, as {type, index0, index1}, or null if
+	 *    this ends a nested update
+	 */
+	List<int[]> end( int newSize ) {
+		if( depth == 0 )
+			throw new IllegalStateException( "endUpdate() without beginUpdate()" );
+		if( --depth > 0 )
+			return null;
+		List<int[]> out = new ArrayList<int[]>();
+		if( !overflow ) {
+			out.addAll( events );
+		} else {
+			int common = Math.min( oldSize, newSize );
+			if( lo < common )
+				out.add( new int[] { CHANGED, lo, common - 1 } );
+			if( newSize > oldSize )
+				out.add( new int[] { ADDED, oldSize, newSize - 1 } );
+			else if( newSize < oldSize )
+				out.add( new int[] { REMOVED, newSize, oldSize - 1 } );
+		}
+		events.clear();
+		return out;
+	}
+}
@@ -4,6 +4,7 @@ import javax.swing.*;
 import java.util.*;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
 <pre>
@@ -54,6 +55,7 @@ public class ListListModel<T> extends AbstractListModel <T>
 	implements List<T>,ComboBoxModel<T> {
 	private static final long serialVersionUID = 1L;
 	protected List<T> delegate = new ArrayList<T>();
+	private transient ListEventBatch batch;
 
 	public int getSize() {
 		return delegate.size();
@@ -103,6 +105,94 @@ public class ListListModel<T> extends AbstractListModel <T>
 		}
 	}
 	
+	/**
+	 *  Get the batch state, which is not serialized, creating it as needed.
+	 */
+	private ListEventBatch events() {
+		if( batch == null )
+			batch = new ListEventBatch();
+		return batch;
+	}
+
+	/**
+	 *  Start a group of changes.  Until the matching {@link #endUpdate()}, no
+	 *  ListDataEvents are fired.  They are collected and merged instead, and
+	 *  fired by <code>endUpdate()</code>.  Updates can be nested.
+	 */
+	public void beginUpdate() {
+		events().begin( delegate.size() );
+	}
+
+	/**
+	 *  End a group of changes started with {@link #beginUpdate()}, firing
+	 *  the merged events for all of the changes.  When the changes were too
+	 *  scattered to merge, one <code>contentsChanged</code> event is fired
+	 *  from the first changed index, along with one event for the change in size.
+	 */
+	public void endUpdate() {
+		List<int[]> evs = events().end( delegate.size() );
+		for( int i = 0; evs != null && i < evs.size(); ++i ) {
+			int[] ev = evs.get(i);
+			switch( ev[0] ) {
+				case ListEventBatch.ADDED:
+					super.fireIntervalAdded( this, ev[1], ev[2] );
+					break;
+				case ListEventBatch.REMOVED:
+					super.fireIntervalRemoved( this, ev[1], ev[2] );
+					break;
+				default:
+					super.fireContentsChanged( this, ev[1], ev[2] );
+					break;
+			}
+		}
+	}
+
+	/**
+	 *  Apply any number of changes directly to the underlying list, and then
+	 *  fire one <code>contentsChanged</code> event, along with one event for
+	 *  the change in size.  This is the fastest way to make large changes.
+	 *  <pre>
+	 *  model.batch( new Consumer&lt;List&lt;Row&gt;&gt;() {
+	 *      public void accept( List&lt;Row&gt; rows ) {
+	 *          rows.removeIf( stale );
+	 *          rows.addAll( loaded );
+	 *          Collections.sort( rows );
+	 *      }
+	 *  });
+	 *  </pre>
+	 *  @param changes is passed the underlying list to change
+	 */
+	public void batch( Consumer<List<T>> changes ) {
+		beginUpdate();
+		try {
+			events().touchAll();
+			changes.accept( delegate );
+		} finally {
+			endUpdate();
+		}
+	}
+
+	protected void fireIntervalAdded( Object source, int index0, int index1 ) {
+		if( events().isActive() )
+			events().record( ListEventBatch.ADDED, index0, index1 );
+		else
+			super.fireIntervalAdded( source, index0, index1 );
+	}
+
+	protected void fireIntervalRemoved( Object source, int index0, int index1 ) {
+		if( events().isActive() )
+			events().record( ListEventBatch.REMOVED, index0, index1 );
+		else
+			super.fireIntervalRemoved( source, index0, index1 );
+	}
+
+	protected void fireContentsChanged( Object source, int index0, int index1 ) {
+		if( events().isActive() )
+			events().record( ListEventBatch.CHANGED, index0, index1 );
+		else
+			super.fireContentsChanged( source, index0, index1 );
+	}
+
 	public Object getSelectedItem() {
 		return comboSel;
 	}
@@ -192,13 +282,7 @@ public class ListListModel<T> extends AbstractListModel <T>
 	}
 
 	public void insertElementAt(T obj, int index) {
-		if( delegate.size() > 0 ) {
-			delegate.add( delegate.get( delegate.size()-1));
-		}
-		for( int i = delegate.size()-2; i > index; --i ) {
-			delegate.set( i, delegate.get(i-1) );
-		}
-		delegate.set( index, obj );
+		delegate.add( index, obj );
 		fireIntervalAdded(this, index, index);
 	}
 
@@ -244,7 +328,6 @@ public class ListListModel<T> extends AbstractListModel <T>
 
 	public void add(int index, T element) {
 		insertElementAt(element, index);
-		fireIntervalAdded(this, index, index);
 	}
 
 	public T remove(int index) {
@@ -263,9 +346,8 @@ public class ListListModel<T> extends AbstractListModel <T>
 	}
 
 	public void removeRange(int fromIndex, int toIndex) {
-		for(int i = toIndex; i >= fromIndex; i--) {
-			delegate.remove(i);
-		}
+		// One shift of the tail, rather than one per element
+		delegate.subList(fromIndex, toIndex+1).clear();
 		fireIntervalRemoved(this, fromIndex, toIndex);
 	}
 
@@ -0,0 +1,253 @@
+package org.wonderly.swing;
+
+import java.util.List;
+import javax.swing.AbstractListModel;
+import javax.swing.ComboBoxModel;
+
+/**
+ *  The common part of {@link IntListModel}, {@link LongListModel} and
+ *  {@link DoubleListModel}, which keep their values in a growable primitive
+ *  array instead of a Vector of boxed values.  A series of a million longs
+ *  then takes 8MB, rather than the 20MB or more of a <code>VectorListModel&lt;Long&gt;</code>,
+ *  and refreshing it creates no garbage.  Values are only boxed as
+ *  {@link #getElementAt(int)} hands them to a renderer.
+ *  <p>
+ *  This class manages the size, capacity and events, and the subclasses add
+ *  the methods which take and return their type of value.  The events are the
+ *  same as {@link VectorListModel} fires, including the grouping of them with
+ *  {@link #beginUpdate()} and {@link #endUpdate()}.
+ *  <b>This class is not thread safe, and is intended to only ever be used from
+ *  the EDT</b>.
+ */
+public abstract class PrimitiveListModel<T> extends AbstractListModel<T>
+		implements ComboBoxModel<T> {
+	private static final long serialVersionUID = 1L;
+	/** The number of values in use at the start of the array */
+	protected int size;
+	private transient ListEventBatch batch;
+	private Object comboSel;
+
+	/**
+	 *  Get the array holding the values.
+	 */
+	abstract Object array();
+
+	/**
+	 *  Replace the array holding the values.
+	 */
+	abstract void array( Object arr );
+
+	/**
+	 *  Create an array of the right type.
+	 */
+	abstract Object newArray( int len );
+
+	/**
+	 *  Get the value at the passed index as an object, for display.
+	 */
+	abstract T box( int index );
+
+	public int getSize() {
+		return size;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public T getElementAt( int index ) {
+		if( index < 0 || index >= size )
+			return null;
+		return box( index );
+	}
+
+	public Object getSelectedItem() {
+		return comboSel;
+	}
+
+	public void setSelectedItem( Object obj ) {
+		comboSel = obj;
+	}
+
+	/**
+	 *  Get the number of values which fit without growing the array.
+	 */
+	public int capacity() {
+		return java.lang.reflect.Array.getLength( array() );
+	}
+
+	/**
+	 *  Make sure that at least the passed number of values fit without
+	 *  growing the array again.
+	 */
+	public void ensureCapacity( int minCapacity ) {
+		int cap = capacity();
+		if( minCapacity <= cap )
+			return;
+		Object arr = newArray( Math.max( minCapacity, cap + ( cap >> 1 ) + 8 ) );
+		System.arraycopy( array(), 0, arr, 0, size );
+		array( arr );
+	}
+
+	/**
+	 *  Shrink the array to just hold the values in use.
+	 */
+	public void trimToSize() {
+		if( capacity() == size )
+			return;
+		Object arr = newArray( size );
+		System.arraycopy( array(), 0, arr, 0, size );
+		array( arr );
+	}
+
+	/**
+	 *  Change the number of values.  New values are zero.
+	 */
+	public void setSize( int newSize ) {
+		if( newSize < 0 )
+			throw new IllegalArgumentException( "negative size: "+newSize );
+		int oldSize = size;
+		if( newSize > oldSize ) {
+			ensureCapacity( newSize );
+			clearRange( oldSize, newSize );
+			size = newSize;
+			fireIntervalAdded( this, oldSize, newSize-1 );
+		} else if( newSize < oldSize ) {
+			size = newSize;
+			fireIntervalRemoved( this, newSize, oldSize-1 );
+		}
+	}
+
+	/**
+	 *  Zero the values from <code>from</code> up to but not including <code>to</code>.
+	 */
+	abstract void clearRange( int from, int to );
+
+	/**
+	 *  Make room for <code>cnt</code> values at the passed index, moving the
+	 *  values after it along.  The caller fills the room and fires the event.
+	 */
+	void open( int index, int cnt ) {
+		if( index < 0 || index > size )
+			throw new IndexOutOfBoundsException( "Index: "+index+", Size: "+size );
+		ensureCapacity( size + cnt );
+		Object arr = array();
+		System.arraycopy( arr, index, arr, index + cnt, size - index );
+		size += cnt;
+	}
+
+	/**
+	 *  Check that the passed index is in use.
+	 */
+	void check( int index ) {
+		if( index < 0 || index >= size )
+			throw new IndexOutOfBoundsException( "Index: "+index+", Size: "+size );
+	}
+
+	/**
+	 *  Remove the value at the passed index.
+	 */
+	public void removeElementAt( int index ) {
+		removeRange( index, index );
+	}
+
+	/**
+	 *  Remove the values from <code>fromIndex</code> through <code>toIndex</code>
+	 *  inclusive, as {@link VectorListModel#removeRange(int,int)} does.
+	 */
+	public void removeRange( int fromIndex, int toIndex ) {
+		check( fromIndex );
+		check( toIndex );
+		if( toIndex < fromIndex )
+			throw new IllegalArgumentException( "fromIndex must be <= toIndex" );
+		Object arr = array();
+		System.arraycopy( arr, toIndex + 1, arr, fromIndex, size - toIndex - 1 );
+		size -= toIndex - fromIndex + 1;
+		fireIntervalRemoved( this, fromIndex, toIndex );
+	}
+
+	/**
+	 *  Remove all of the values, keeping the array for reuse.
+	 */
+	public void clear() {
+		int index1 = size-1;
+		size = 0;
+		if( index1 >= 0 )
+			fireIntervalRemoved( this, 0, index1 );
+	}
+
+	/**
+	 *  Get the batch state, which is not serialized, creating it as needed.
+	 */
+	private ListEventBatch events() {
+		if( batch == null )
+			batch = new ListEventBatch();
+		return batch;
+	}
+
+	/**
+	 *  Start a group of changes.  Until the matching {@link #endUpdate()}, no
+	 *  ListDataEvents are fired.  They are collected and merged instead, and
+	 *  fired by <code>endUpdate()</code>.  Updates can be nested.
+	 */
+	public void beginUpdate() {
+		events().begin( size );
+	}
+
+	/**
+	 *  End a group of changes started with {@link #beginUpdate()}, firing
+	 *  the merged events for all of the changes.
+	 */
+	public void endUpdate() {
+		List<int[]> evs = events().end( size );
+		for( int i = 0; evs != null && i < evs.size(); ++i ) {
+			int[] ev = evs.get(i);
+			switch( ev[0] ) {
+				case ListEventBatch.ADDED:
+					super.fireIntervalAdded( this, ev[1], ev[2] );
+					break;
+				case ListEventBatch.REMOVED:
+					super.fireIntervalRemoved( this, ev[1], ev[2] );
+					break;
+				default:
+					super.fireContentsChanged( this, ev[1], ev[2] );
+					break;
+			}
+		}
+	}
+
+	protected void fireIntervalAdded( Object source, int index0, int index1 ) {
+		if( events().isActive() )
+			events().record( ListEventBatch.ADDED, index0, index1 );
+		else
+			super.fireIntervalAdded( source, index0, index1 );
+	}
+
+	protected void fireIntervalRemoved( Object source, int index0, int index1 ) {
+		if( events().isActive() )
+			events().record( ListEventBatch.REMOVED, index0, index1 );
+		else
+			super.fireIntervalRemoved( source, index0, index1 );
+	}
+
+	protected void fireContentsChanged( Object source, int index0, int index1 ) {
+		if( events().isActive() )
+			events().record( ListEventBatch.CHANGED, index0, index1 );
+		else
+			super.fireContentsChanged( source, index0, index1 );
+	}
+
+	public String toString() {
+		StringBuilder b = new StringBuilder( "[" );
+		for( int i = 0; i < size; ++i ) {
+			if( i > 0 )
+				b.append( ", " );
+			b.append( box( i ) );
+		}
+		return b.append( "]" ).toString();
+	}
+}
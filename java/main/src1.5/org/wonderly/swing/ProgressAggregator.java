@@ -0,0 +1,175 @@
+package org.wonderly.swing;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *  This class combines the progress of work which is split across several
+ *  threads into one overall progress, which never goes backwards, for a single
+ *  {@link ProgressObserver} such as {@link SimpleProgress}.
+ *  <p>
+ *  Each sub-task or thread gets its own child observer from {@link #newChild(double)},
+ *  and reports its steps to it as it would to any ProgressObserver.  The weight
+ *  of each child is its share of the overall work.  Children can report from any
+ *  thread at the same time, and can be added while the work is going on.  The
+ *  counters are updated without locking, and the overall progress is passed on
+ *  as steps out of {@link #getResolution()}.
+ *  <pre>
+ *  ProgressAggregator agg = new ProgressAggregator( new SimpleProgress( frame, "Importing...", 0 ) );
+ *  for( final File f : files ) {
+ *      final ProgressObserver obs = agg.newChild( f.length() );
+ *      exec.execute( new Runnable() {
+ *          public void run() {
+ *              importFile( f, obs );
+ *          }
+ *      });
+ *  }
+ *  ...wait for the imports...
+ *  agg.finish();
+ *  </pre>
+ */
+public class ProgressAggregator {
+	/** The units of work each unit of weight is split into */
+	private static final double UNITS = 1 << 20;
+
+	private final ProgressObserver target;
+	private final int resolution;
+	private final AtomicLong doneUnits = new AtomicLong(), totalUnits = new AtomicLong();
+	private final AtomicBoolean forwarding = new AtomicBoolean();
+	private volatile int sent;
+	private volatile String name;
+
+	/**
+	 *  Create an aggregator which reports to the passed observer in 1000 steps.
+	 */
+	public ProgressAggregator( ProgressObserver target ) {
+		this( target, 1000 );
+	}
+
+	/**
+	 *  Create an aggregator which reports to the passed observer.
+	 *  <code>startProcessSteps( resolution )</code> is called on it right away.
+	 *  @param target the observer to report the overall progress to
+	 *  @param resolution the number of steps the overall progress is reported in
+	 */
+	public ProgressAggregator( ProgressObserver target, int resolution ) {
+		if( resolution < 1 )
+			throw new IllegalArgumentException( "resolution must be positive: "+resolution );
+		this.target = target;
+		this.resolution = resolution;
+		target.startProcessSteps( resolution );
+	}
+
+	/**
+	 *  Get the number of steps the overall progress is reported in.
+	 */
+	public int getResolution() {
+		return resolution;
+	}
+
+	/**
+	 *  Get the overall progress, as the weighted share of the work done so far.
+	 *  @return between 0 and 1
+	 */
+	public double getFraction() {
+		long tot = totalUnits.get();
+		return tot == 0 ? 0 : Math.min( 1.0, doneUnits.get() / (double)tot );
+	}
+
+	/**
+	 *  Get an observer for a sub-task.  It should be given its own
+	 *  <code>startProcessSteps</code>, <code>progressToStep</code> and
+	 *  <code>progressStepsDone</code> calls as the sub-task runs.  Each
+	 *  child observer should only be used by one thread at a time.
+	 *  @param weight the share of the overall work which the sub-task does,
+	 *    relative to the other children
+	 */
+	public ProgressObserver newChild( double weight ) {
+		if( !(weight > 0) )
+			throw new IllegalArgumentException( "weight must be positive: "+weight );
+		long units = Math.max( 1, Math.round( weight * UNITS ) );
+		totalUnits.addAndGet( units );
+		return new Child( units );
+	}
+
+	/**
+	 *  Report the overall work as done to the target observer.  Call this once
+	 *  all the children are done, or to stop reporting.
+	 */
+	public void finish() {
+		// Wait out any child which is still passing on its progress
+		while( !forwarding.compareAndSet( false, true ) )
+			Thread.yield();
+		try {
+			sent = resolution;
+			target.progressStepsDone( resolution );
+		} finally {
+			forwarding.set( false );
+		}
+	}
+
+	private int currentStep() {
+		return (int)( getFraction() * resolution );
+	}
+
+	/**
+	 *  Pass the overall progress on if it has moved forward.  Only one thread
+	 *  does this at a time, and the others leave it to that thread rather than
+	 *  waiting, so the target only ever sees the progress go forward.
+	 */
+	private void forward() {
+		while( currentStep() > sent && forwarding.compareAndSet( false, true ) ) {
+			try {
+				int step = currentStep();
+				if( step > sent && sent < resolution ) {
+					sent = step;
+					target.progressToStep( step, name );
+				}
+			} finally {
+				forwarding.set( false );
+			}
+		}
+	}
+
+	/**
+	 *  The observer for one sub-task.  Its share of the units is credited to
+	 *  the aggregator as its steps are reported, and never taken back.
+	 */
+	private class Child implements ProgressObserver {
+		private final long units;
+		private final AtomicLong credited = new AtomicLong();
+		private volatile int total;
+
+		Child( long units ) {
+			this.units = units;
+		}
+
+		public void startProcessSteps( int cnt ) {
+			total = cnt;
+		}
+
+		public void progressToStep( int step, String nm ) {
+			int tot = total;
+			if( tot <= 0 )
+				return;
+			if( nm != null )
+				name = nm;
+			credit( (long)( units * Math.min( 1.0, Math.max( 0, step ) / (double)tot ) ) );
+		}
+
+		public void progressStepsDone( int tot ) {
+			credit( units );
+		}
+
+		private void credit( long upto ) {
+			long c;
+			while( upto > (c = credited.get()) ) {
+				if( credited.compareAndSet( c, upto ) ) {
+					doneUnits.addAndGet( upto - c );
+					forward();
+					return;
+				}
+			}
+		}
+	}
+}
@@ -10,6 +10,7 @@ package org.wonderly.swing;
  * stepwise processing happening inside of another object.
  * @see SyncThread
  * @see SimpleProgress
+ * @see ProgressAggregator
  * @author gregg
  */
 public interface ProgressObserver {
@@ -0,0 +1,154 @@
+package org.wonderly.swing;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  This class estimates how many items per second are being done, and how long
+ *  is left, from a stream of progress updates.  The rate is an exponentially
+ *  weighted moving average, so that it follows changes in speed without jumping
+ *  around with every update.  Updates closer together than 50ms are folded into
+ *  the next sample, so {@link #update(long)} is cheap enough to call for every item.
+ *  <p>
+ *  {@link SimpleProgress} uses one of these to show the rate and time left.  As
+ *  a {@link ProgressObserver}, it can also be given the same calls as any other
+ *  observer, for logging the rate of a {@link SyncThread} or other work.
+ *  <pre>
+ *  ProgressRate rate = new ProgressRate();
+ *  rate.startProcessSteps( rows.size() );
+ *  for( int i = 0; i &lt; rows.size(); ++i ) {
+ *      load( rows.get(i) );
+ *      rate.update( i+1 );
+ *      if( i % 10000 == 0 )
+ *          log.info( rate.toString() );
+ *  }
+ *  </pre>
+ */
+public class ProgressRate implements ProgressObserver {
+	private static final long MIN_SAMPLE = TimeUnit.MILLISECONDS.toNanos( 50 );
+	private final long window;
+	private long lastTime, lastDone, done, total;
+	private boolean started;
+	private double rate = -1;
+
+	/**
+	 *  Create an estimate which mostly reflects the last 5 seconds.
+	 */
+	public ProgressRate() {
+		this( 5, TimeUnit.SECONDS );
+	}
+
+	/**
+	 *  Create an estimate which mostly reflects the passed amount of time.
+	 *  Updates older than this count for less than a third.
+	 */
+	public ProgressRate( long window, TimeUnit unit ) {
+		if( window <= 0 )
+			throw new IllegalArgumentException( "window must be positive: "+window );
+		this.window = unit.toNanos( window );
+	}
+
+	/**
+	 *  Forget all of the updates.
+	 */
+	public synchronized void reset() {
+		started = false;
+		lastTime = lastDone = done = 0;
+		rate = -1;
+	}
+
+	/**
+	 *  Set the total number of items, for {@link #getRemainingMillis()}.
+	 */
+	public synchronized void setTotal( long total ) {
+		this.total = total;
+	}
+
+	/**
+	 *  Get the total number of items.
+	 */
+	public synchronized long getTotal() {
+		return total;
+	}
+
+	/**
+	 *  Note that the passed number of items are done in all.
+	 */
+	public synchronized void update( long count ) {
+		long now = System.nanoTime();
+		done = count;
+		if( !started ) {
+			started = true;
+			lastTime = now;
+			lastDone = count;
+			return;
+		}
+		long dt = now - lastTime;
+		if( dt < MIN_SAMPLE )
+			return;
+		double inst = ( count - lastDone ) * 1e9 / dt;
+		if( rate < 0 )
+			rate = inst;
+		else
+			rate += ( 1 - Math.exp( -dt / (double)window ) ) * ( inst - rate );
+		lastTime = now;
+		lastDone = count;
+	}
+
+	/**
+	 *  Get the number of items done, as last passed to {@link #update(long)}.
+	 */
+	public synchronized long getDone() {
+		return done;
+	}
+
+	/**
+	 *  Get the smoothed number of items done per second.
+	 *  @return 0 until enough updates have been seen
+	 */
+	public synchronized double getRate() {
+		return rate < 0 ? 0 : rate;
+	}
+
+	/**
+	 *  Get the estimated time until {@link #getTotal()} items are done.
+	 *  @return the time in milliseconds, or -1 if it is not known yet
+	 */
+	public synchronized long getRemainingMillis() {
+		if( rate <= 0 || total <= 0 )
+			return -1;
+		return (long)( Math.max( 0, total - done ) * 1000 / rate );
+	}
+
+	/**
+	 *  Format a time in milliseconds as h:mm:ss, or m:ss when under an hour.
+	 */
+	public static String formatMillis( long millis ) {
+		long secs = ( millis + 999 ) / 1000;
+		long h = secs / 3600, m = ( secs / 60 ) % 60, s = secs % 60;
+		if( h > 0 )
+			return h+":"+( m < 10 ? "0" : "" )+m+":"+( s < 10 ? "0" : "" )+s;
+		return m+":"+( s < 10 ? "0" : "" )+s;
+	}
+
+	public void startProcessSteps( int cnt ) {
+		synchronized( this ) {
+			reset();
+			total = cnt;
+		}
+		update( 0 );
+	}
+
+	public void progressToStep( int step, String name ) {
+		update( step );
+	}
+
+	public void progressStepsDone( int tot ) {
+		update( tot );
+	}
+
+	public String toString() {
+		long left = getRemainingMillis();
+		return String.format( "%.1f/s", getRate() )+
+			( left < 0 ? "" : ", "+formatMillis( left )+" left" );
+	}
+}
@@ -0,0 +1,215 @@
+package org.wonderly.swing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *  This class holds the values produced by the <code>construct()</code> method of
+ *  {@link ComponentUpdateThread}s started with
+ *  {@link ComponentUpdateThread#startCached(Object)}, so that reference data which
+ *  many screens load does not have to be fetched every time.
+ *  <p>
+ *  Values are kept for a fixed time, and the least recently used values are
+ *  dropped once there are more than the maximum number of them.  When a value
+ *  is wanted while another instance is already computing it, the instance waits
+ *  for that result instead of computing it again.  Null values are passed to the
+ *  waiting instances, but are not kept.  If the computing instance fails or is
+ *  discarded, the next waiting instance computes the value instead.
+ *  <pre>
+ *  static final ResultCache refData = new ResultCache( 50, 10, TimeUnit.MINUTES );
+ *  ...
+ *  ComponentUpdateThread&lt;List&lt;Country&gt;&gt; th = new ComponentUpdateThread&lt;List&lt;Country&gt;&gt;( combo ) {
+ *      ...
+ *  };
+ *  th.setResultCache( refData );
+ *  th.startCached( "countries" );
+ *  </pre>
+ */
+public class ResultCache {
+	private final int maxEntries;
+	private final long ttl;
+	private final Map<Object,Entry> entries;
+	private final Map<Object,Flight> flights = new HashMap<Object,Flight>();
+	private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong(),
+		joins = new AtomicLong();
+
+	private static class Entry {
+		final Object value;
+		final long expires;
+		Entry( Object value, long expires ) {
+			this.value = value;
+			this.expires = expires;
+		}
+	}
+
+	/** A computation in progress and the workers waiting for it */
+	private static class Flight {
+		SwingWorker<?> leader;
+		final List<SwingWorker<?>> waiters = new ArrayList<SwingWorker<?>>();
+		Flight( SwingWorker<?> leader ) {
+			this.leader = leader;
+		}
+	}
+
+	/**
+	 *  Create a cache.
+	 *  @param maxEntries the most values to keep
+	 *  @param ttl how long each value is kept after it is computed
+	 *  @param unit the unit of <code>ttl</code>
+	 */
+	public ResultCache( final int maxEntries, long ttl, TimeUnit unit ) {
+		if( maxEntries < 1 )
+			throw new IllegalArgumentException( "maxEntries must be positive: "+maxEntries );
+		if( ttl < 0 )
+			throw new IllegalArgumentException( "ttl can not be negative: "+ttl );
+		this.maxEntries = maxEntries;
+		this.ttl = unit.toNanos( ttl );
+		entries = new LinkedHashMap<Object,Entry>( 16, .75f, true ) {
+			protected boolean removeEldestEntry( Map.Entry<Object,Entry> eldest ) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 *  Get the most values which are kept.
+	 */
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 *  Get how long values are kept, in the passed unit.
+	 */
+	public long getTimeToLive( TimeUnit unit ) {
+		return unit.convert( ttl, TimeUnit.NANOSECONDS );
+	}
+
+	/**
+	 *  Drop the value for the passed key, so that the next request computes it.
+	 *  A computation already in progress is not affected.
+	 */
+	public synchronized void invalidate( Object key ) {
+		entries.remove( key );
+	}
+
+	/**
+	 *  Drop all of the values.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	/**
+	 *  Get the number of values currently kept, including any which have expired
+	 *  but have not been asked for since.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/** Get the number of requests which were answered with a kept value */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/** Get the number of requests which had to compute the value */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/** Get the number of requests which waited on another request's computation */
+	public long getJoinCount() {
+		return joins.get();
+	}
+
+	/**
+	 *  Complete the worker from the cache, have it wait for the computation in
+	 *  progress, or start it to compute the value.
+	 */
+	@SuppressWarnings("unchecked")
+	void start( Object key, SwingWorker<?> w ) {
+		Entry e;
+		boolean lead = false;
+		synchronized( this ) {
+			e = entries.get( key );
+			if( e != null && e.expires - System.nanoTime() < 0 ) {
+				entries.remove( key );
+				e = null;
+			}
+			if( e == null ) {
+				Flight f = flights.get( key );
+				if( f == null ) {
+					flights.put( key, new Flight( w ) );
+					lead = true;
+				} else {
+					f.waiters.add( w );
+					// Queue its setup() before the leader can queue its finished()
+					w.joined();
+				}
+			}
+		}
+		if( e != null ) {
+			hits.incrementAndGet();
+			((SwingWorker<Object>)w).complete( e.value );
+		} else if( lead ) {
+			misses.incrementAndGet();
+			launch( key, w );
+		} else {
+			joins.incrementAndGet();
+		}
+	}
+
+	/**
+	 *  Called by the computing worker once its <code>construct()</code> is over.
+	 */
+	@SuppressWarnings("unchecked")
+	void completed( Object key, SwingWorker<?> w, Object value, boolean ok ) {
+		List<SwingWorker<?>> waiters;
+		SwingWorker<?> next = null;
+		synchronized( this ) {
+			Flight f = flights.get( key );
+			if( f == null || f.leader != w )
+				return;
+			if( ok ) {
+				flights.remove( key );
+				if( value != null )
+					entries.put( key, new Entry( value, System.nanoTime() + ttl ) );
+				waiters = f.waiters;
+			} else {
+				waiters = null;
+				while( next == null && !f.waiters.isEmpty() ) {
+					next = f.waiters.remove(0);
+					if( next.isDiscarded() )
+						next = null;
+				}
+				if( next == null )
+					flights.remove( key );
+				else
+					f.leader = next;
+			}
+		}
+		if( next != null ) {
+			launch( key, next );
+			return;
+		}
+		for( int i = 0; waiters != null && i < waiters.size(); ++i )
+			((SwingWorker<Object>)waiters.get(i)).complete( value );
+	}
+
+	private void launch( Object key, SwingWorker<?> w ) {
+		boolean started = false;
+		try {
+			started = w.launch();
+		} finally {
+			// Hand the computation on if this one will never report back
+			if( !started )
+				completed( key, w, null, false );
+		}
+	}
+}
@@ -61,6 +61,15 @@ OF THE POSSIBILITY OF SUCH DAMAGE.
  *  dispatch thread.  So, you can call these methods without concern for thread
  *  context in which the calls are made.
  *  <p>
+ *  <code>setValue</code>, <code>setCurrentEntity</code> and <code>progressToStep</code>
+ *  do not wait for the EDT.  Only the latest value and entity are kept, and the
+ *  dialog is updated with them at most {@link #getFrameRate()} times a second, so
+ *  that a worker reporting progress for every record is not slowed down by the EDT.
+ *  <p>
+ *  The rate of progress and the time left are estimated from the values passed to
+ *  <code>setValue</code> and shown with them.  They are available from
+ *  {@link #getProgressRate()} for logging.
+ *  <p>
  *  This dialog is set as DO_NOTHING_ON_CLOSE so that the cancel action can be invoked.
  *  Thus, <code>setVisible(false)</code> must always be called as shown above in the
  *  <code>try { } finally { }</code> above.
@@ -78,6 +87,32 @@ public class SimpleProgress implements CancelContext, ProgressObserver {
 	protected boolean wasCancelled;
 	private Logger log = Logger.getLogger(getClass().getName());
 	private volatile boolean isCancellable;
+	private volatile long edtTimeout;
+
+	// The latest updates which have not been shown yet.
+	private final Object updateLock = new Object();
+	private int pendingValue;
+	private String pendingEntity;
+	private boolean valueSet, entitySet, refreshQueued;
+	private long lastRefresh;
+	private volatile int frameRate = 30;
+	private final ProgressRate rate = new ProgressRate();
+	private volatile boolean showRate = true;
+	private final javax.swing.Timer refreshTimer = new javax.swing.Timer( 0, new ActionListener() {
+		public void actionPerformed( ActionEvent ev ) {
+			refresh();
+		}
+	});
+	private final Runnable doRefresh = new Runnable() {
+		public void run() {
+			refresh();
+		}
+	};
+	{
+		refreshTimer.setRepeats( false );
+		// A restart while refresh() runs must not be merged into the running event
+		refreshTimer.setCoalesce( false );
+	}
 
 	public void setIndeterminate(final boolean how) {
 		runInSwing(new Runnable() {
@@ -104,6 +139,7 @@ public class SimpleProgress implements CancelContext, ProgressObserver {
 		synchronized (this) {
 			total = val;
 		}
+		rate.setTotal( val );
 	}
 	
 	/**
@@ -240,6 +276,7 @@ public class SimpleProgress implements CancelContext, ProgressObserver {
 	
 	protected JPanel build( Window parent, String title, int total ) {
 		this.total = total;
+		rate.setTotal( total );
 		JPanel p = new JPanel();
 		Packer pk = new Packer( p );
 		msg = new JLabel( "Processing...", JLabel.CENTER );
@@ -294,53 +331,219 @@ public class SimpleProgress implements CancelContext, ProgressObserver {
 	}
 
 
+	/**
+	 *  Set how long updates wait for a busy EDT before they are skipped, so that
+	 *  the worker reporting progress is not held up.  The default of 0 waits for
+	 *  as long as it takes.
+	 *  @param millis the longest wait in milliseconds, or 0 to always wait
+	 */
+	public void setEdtTimeout( long millis ) {
+		edtTimeout = Math.max( 0, millis );
+	}
+
+	/**
+	 *  Get how long updates wait for a busy EDT before they are skipped.
+	 */
+	public long getEdtTimeout() {
+		return edtTimeout;
+	}
+
 	/**
 	 *  Used to make sure we update the components in an event dispatch thread.
+	 *  The wait is measured by {@link EdtWatchdog} when it is enabled, and gives
+	 *  up after {@link #getEdtTimeout()} if that is set.
 	 */
 	protected void runInSwing( Runnable r ) {
 		if( SwingUtilities.isEventDispatchThread() ) {
 			r.run();
 		} else {
 			try {
-				SwingUtilities.invokeAndWait( r );
+				long tm = edtTimeout;
+				if( tm > 0 ) {
+					if( !EdtWatchdog.invokeAndWait( r, tm, java.util.concurrent.TimeUnit.MILLISECONDS ) )
+						log.fine( "EDT busy, gave up waiting for update: "+r );
+				} else {
+					EdtWatchdog.invokeAndWait( r );
+				}
 			} catch( Exception ex ) {
 			}
 		}
 	}
 
+	/**
+	 *  Set how many times a second the dialog is updated with the latest
+	 *  value and entity.
+	 *  @param perSecond the most updates per second, or 0 to update the dialog,
+	 *    waiting for the EDT, on every call as was done historically
+	 */
+	public void setFrameRate( int perSecond ) {
+		if( perSecond < 0 )
+			throw new IllegalArgumentException( "frame rate can not be negative: "+perSecond );
+		frameRate = perSecond;
+	}
+
+	/**
+	 *  Get how many times a second the dialog is updated.
+	 */
+	public int getFrameRate() {
+		return frameRate;
+	}
+
+	/**
+	 *  Get the estimate of the rate of progress and the time left, which is
+	 *  updated by each call to {@link #setValue(int)}.
+	 */
+	public ProgressRate getProgressRate() {
+		return rate;
+	}
+
+	/**
+	 *  Get the smoothed number of items per second passed to {@link #setValue(int)}.
+	 */
+	public double getRate() {
+		return rate.getRate();
+	}
+
+	/**
+	 *  Get the estimated time until the value reaches the total.
+	 *  @return the time in milliseconds, or -1 if it is not known yet
+	 */
+	public long getRemainingMillis() {
+		return rate.getRemainingMillis();
+	}
+
+	/**
+	 *  Set whether the rate and time left are shown with the value.  They are shown by default.
+	 */
+	public void setShowRate( boolean how ) {
+		showRate = how;
+	}
+
+	/**
+	 *  Check whether the rate and time left are shown with the value.
+	 */
+	public boolean isShowRate() {
+		return showRate;
+	}
+
 	/**
 	 *  Sets the string value that indicates what work is being performed.
-	 *  This method is Swing safe.
+	 *  This method is Swing safe, and does not wait for the EDT.
 	 */
 	public void setCurrentEntity( final String name ) {
-		runInSwing( new Runnable() {
-			public void run() {
-				un.setText( name );
-				un.setToolTipText( name );
-				un.revalidate();
-				un.repaint();
-			}
-		});
+		if( frameRate == 0 ) {
+			runInSwing( new Runnable() {
+				public void run() {
+					showEntity( name );
+				}
+			});
+			return;
+		}
+		synchronized( updateLock ) {
+			pendingEntity = name;
+			entitySet = true;
+		}
+		requestRefresh();
 	}
 
 	/**
-	 *  Sets the current progress value.  This method is Swing safe.
+	 *  Sets the current progress value.  This method is Swing safe, and
+	 *  does not wait for the EDT.
 	 */
 	public void setValue( final int val ) {
-		runInSwing( new Runnable() {
-			public void run() {
-				br.setValue( val );
-				msg.setText( val+" of "+total+" - "+((val*100)/total)+"%" );
-				msg.setToolTipText( val+" of "+total+" - "+((val*100)/total)+"%" );
-				msg.revalidate();
-				msg.repaint();
-				br.repaint();
-			}
-		});
+		rate.update( val );
+		if( frameRate == 0 ) {
+			runInSwing( new Runnable() {
+				public void run() {
+					showValue( val );
+				}
+			});
+			return;
+		}
+		synchronized( updateLock ) {
+			pendingValue = val;
+			valueSet = true;
+		}
+		requestRefresh();
+	}
+
+	/**
+	 *  Show any value and entity which have not been shown yet, waiting for the EDT.
+	 */
+	public void flush() {
+		runInSwing( doRefresh );
+	}
+
+	/**
+	 *  Arrange for {@link #refresh()} to happen in the EDT, no sooner than a
+	 *  frame after the last one.
+	 */
+	private void requestRefresh() {
+		long delay;
+		synchronized( updateLock ) {
+			if( refreshQueued )
+				return;
+			refreshQueued = true;
+			int rate = frameRate;
+			delay = rate == 0 ? 0 : lastRefresh + 1000000000L / rate - System.nanoTime();
+		}
+		if( delay > 0 ) {
+			refreshTimer.setInitialDelay( (int)Math.max( 1, delay / 1000000 ) );
+			refreshTimer.restart();
+		} else if( SwingUtilities.isEventDispatchThread() ) {
+			refresh();
+		} else {
+			SwingUtilities.invokeLater( doRefresh );
+		}
+	}
+
+	/**
+	 *  Show the latest value and entity.  Called in the EDT.
+	 */
+	private void refresh() {
+		int val;
+		String name;
+		boolean v, e;
+		synchronized( updateLock ) {
+			v = valueSet;
+			e = entitySet;
+			val = pendingValue;
+			name = pendingEntity;
+			valueSet = entitySet = refreshQueued = false;
+			pendingEntity = null;
+			lastRefresh = System.nanoTime();
+		}
+		if( v )
+			showValue( val );
+		if( e )
+			showEntity( name );
+	}
+
+	private void showEntity( String name ) {
+		if( name == null ? un.getText() == null : name.equals( un.getText() ) )
+			return;
+		// JLabel revalidates and repaints itself as needed
+		un.setText( name );
+		un.setToolTipText( name );
+	}
+
+	private void showValue( int val ) {
+		int tot;
+		synchronized( this ) {
+			tot = total;
+		}
+		br.setValue( val );
+		String str = val+" of "+tot+" - "+(tot == 0 ? 0 : (val*100)/tot)+"%";
+		if( showRate && rate.getRate() > 0 )
+			str += " - "+rate;
+		msg.setText( str );
+		msg.setToolTipText( str );
 	}
 
 	public void startProcessSteps(int cnt) {
 		setMax( cnt );
+		rate.reset();
+		rate.setTotal( cnt );
 	}
 
 	public void progressToStep( final int step, final String name ) {
@@ -354,6 +557,7 @@ public class SimpleProgress implements CancelContext, ProgressObserver {
 	 */
 	public void progressStepsDone(int total) {
 		setValue( total );
+		flush();
 		if( dlg != null ) {
 			dlg.dispose();
 			dlg = null;
@@ -1,8 +1,9 @@
 package org.wonderly.swing;
 
 import javax.swing.*;
-import javax.security.auth.*;
 import java.security.*;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
 import java.util.logging.*;
 
 /**
@@ -50,42 +51,134 @@ OF THE POSSIBILITY OF SUCH DAMAGE.
  * This version is enhanced to copy active Subject and ContextClassLoader
  * objects out of the creating environment!
  *
+ * The <code>construct()</code> method is run by an {@link Executor} rather
+ * than a dedicated thread per instance.  By default, this is the bounded pool
+ * provided by {@link WorkerExecutors#sharedPool()}.  Use
+ * {@link #setDefaultExecutor(Executor)} to change it for all instances, or
+ * {@link #setExecutor(Executor)} to change it for a single instance.
+ *
+ * Each instance is a {@link Future} of the value of <code>construct()</code>, and
+ * {@link #toCompletableFuture()} and {@link #toEdtFuture()} provide
+ * <code>CompletableFuture</code>s of it, so that workers can be combined and
+ * waited on with timeouts.
+ *
  * Modified by <a href="mailto:gregg.wonderly@pobox.com">Gregg Wonderly</a>
  * to include added functionality to 
  * work in conjunction with the ComponentUpdateThread class.
  *
  *  @author Gregg Wonderly <a href="mailto:gregg.wonderly@pobox.com">gregg.wonderly@pobox.com</a>
  */ 
-public abstract class SwingWorker<T> {
+public abstract class SwingWorker<T> implements Future<T> {
     private T value;  // see getValue(), setValue()
     private Thread thread;
-	private Subject subj;
-	private ClassLoader ctxLoader;
-	private AccessControlContext ctx;
+	private ContextPropagation.Context context = ContextPropagation.Context.EMPTY;
 	private Logger log = Logger.getLogger( getClass().getName() );
+	private volatile Executor executor;
+	private static volatile Executor defExecutor;
+	private Runnable doConstruct, doFinished, doSetup;
+	// setup() was run for waiting on another worker's computation, see joined()
+	private volatile boolean joined;
+	private volatile long started;
+	private final WorkerFuture future = new WorkerFuture();
+	private final CompletableFuture<T> edtFuture = new CompletableFuture<T>();
+
+	/**
+	 *  The future of <code>construct()</code>, which cancels the worker when cancelled.
+	 */
+	private class WorkerFuture extends CompletableFuture<T> {
+		public boolean cancel( boolean mayInterruptIfRunning ) {
+			return SwingWorker.this.cancel( mayInterruptIfRunning );
+		}
+		boolean doCancel() {
+			return super.cancel( false );
+		}
+	}
+
+	/**
+	 *  Set the Executor used by all instances which have not had
+	 *  {@link #setExecutor(Executor)} called.
+	 *  @param exec the executor to use, or null to use {@link WorkerExecutors#sharedPool()}
+	 */
+	public static void setDefaultExecutor( Executor exec ) {
+		defExecutor = exec;
+	}
+
+	/**
+	 *  Get the Executor used by all instances which have not had
+	 *  {@link #setExecutor(Executor)} called.
+	 */
+	public static Executor getDefaultExecutor() {
+		Executor exec = defExecutor;
+		return exec != null ? exec : WorkerExecutors.sharedPool();
+	}
+
+	/**
+	 *  Set the Executor which will run <code>construct()</code> for this instance.
+	 *  This must be called before {@link #start()}.
+	 *  @param exec the executor to use, or null to use {@link #getDefaultExecutor()}
+	 */
+	public void setExecutor( Executor exec ) {
+		executor = exec;
+	}
+
+	/**
+	 *  Get the Executor which will run <code>construct()</code> for this instance.
+	 */
+	public Executor getExecutor() {
+		Executor exec = executor;
+		return exec != null ? exec : getDefaultExecutor();
+	}
 	
 	/**
 	 *  Get all of the thread, subject and access control context
-	 *  currently active in the calling thread
+	 *  currently active in the calling thread, as controlled by
+	 *  {@link ContextPropagation#getDefault()}.
 	 */
 	protected void collectContext() throws PrivilegedActionException {
-		ctxLoader = Thread.currentThread().getContextClassLoader();
-		subj = AccessController.doPrivileged( new PrivilegedExceptionAction<Subject>() {
-			public Subject run() throws Exception {
-				return Subject.getSubject( ctx = AccessController.getContext() );
-			}
-		});
+		context = ContextPropagation.getDefault().capture();
 	}
 
     /** 
      * Class to maintain reference to current worker thread
-     * under separate synchronization control.
+     * under separate synchronization control.  The thread is only
+     * known while <code>construct()</code> is running in it, so that
+     * an {@link #interrupt()} can never reach a pooled thread after
+     * it has moved on to another task.
      */
     private static class ThreadVar {
         private Thread thread;
-        ThreadVar(Thread t) { thread = t; }
-        synchronized Thread get() { return thread; }
-        synchronized void clear() { thread = null; }
+        private boolean started, cleared;
+        synchronized boolean start() {
+            if( started || cleared )
+                return false;
+            started = true;
+            return true;
+        }
+        synchronized boolean bind(Thread t) {
+            if( cleared )
+                return false;
+            thread = t;
+            return true;
+        }
+        synchronized boolean isCleared() { return cleared; }
+        /**
+         * @return true if the worker was never started, and now never will be
+         */
+        synchronized boolean interrupt() {
+            if( thread != null )
+                thread.interrupt();
+            clear();
+            return !started;
+        }
+        synchronized void clear() {
+            thread = null;
+            cleared = true;
+            notifyAll();
+        }
+        synchronized void await() throws InterruptedException {
+            while( !cleared )
+                wait();
+        }
     }
 
     private ThreadVar threadVar;
@@ -117,39 +210,157 @@ public abstract class SwingWorker<T> {
     public void finished() {
     }
 
+    /**
+     * Called on the event dispatching thread instead of <code>finished</code>
+     * when the result of this worker has been discarded with {@link #discard()}.
+     * Override this to undo anything <code>setup</code> did which
+     * <code>finished</code> would otherwise have undone.
+     */
+    protected void discarded() {
+    }
+
+    private volatile boolean discard;
+
+    /**
+     * Interrupt the worker and arrange for {@link #discarded()} to be called
+     * instead of <code>finished</code>, so that its result never reaches the UI.
+     */
+    public void discard() {
+        discard = true;
+        interrupt();
+    }
+
+    /**
+     * Check if {@link #discard()} has been called.  A long running
+     * <code>construct</code> can check this to stop early.
+     */
+    public boolean isDiscarded() {
+        return discard;
+    }
+
     /**
      * A new method that interrupts the worker thread.  Call this method
      * to force the worker to stop what it's doing.
      */
     public void interrupt() {
-        Thread t = threadVar.get();
-        if (t != null) {
-            t.interrupt();
+        if( threadVar.interrupt() ) {
+            future.doCancel();
+            // Undo the setup() which joined() ran
+            if( joined )
+                SwingUtilities.invokeLater( doFinished );
+            else
+                settleEdtLater();
         }
-        threadVar.clear();
+    }
+
+    /**
+     * Cancel the worker.  <code>finished()</code> will not be called, and
+     * {@link #discarded()} is called instead if <code>construct()</code> has started.
+     * @param mayInterruptIfRunning if true, the worker is {@link #discard()}ed,
+     *   which interrupts <code>construct()</code>.  Otherwise it is left to finish.
+     * @return false if <code>construct()</code> was already over
+     */
+    public boolean cancel( boolean mayInterruptIfRunning ) {
+        if( !future.doCancel() )
+            return false;
+        if( mayInterruptIfRunning )
+            discard();
+        else
+            discard = true;
+        settleEdtLater();
+        return true;
+    }
+
+    /**
+     * Check if the worker was cancelled, discarded or interrupted before
+     * <code>construct()</code> returned a value.
+     */
+    public boolean isCancelled() {
+        return future.isCancelled();
+    }
+
+    /**
+     * Check if <code>construct()</code> is over.  <code>finished()</code>
+     * may not have been called yet.
+     */
+    public boolean isDone() {
+        return future.isDone();
+    }
+
+    /**
+     * Wait at most the passed time for the value of <code>construct()</code>.
+     * @throws ExecutionException if <code>construct()</code> or <code>setup()</code> failed
+     * @throws CancellationException if the worker was cancelled or interrupted
+     * @throws TimeoutException if the time ran out
+     */
+    public T get( long timeout, TimeUnit unit )
+            throws InterruptedException, ExecutionException, TimeoutException {
+        return future.get( timeout, unit );
+    }
+
+    /**
+     * Get a future which is completed in the worker thread when <code>construct()</code>
+     * is over, before <code>finished()</code> is called.  It is completed with the
+     * value of <code>construct()</code>, completed with the exception thrown by
+     * <code>construct()</code> or <code>setup()</code>, or cancelled if the worker was
+     * cancelled, discarded or interrupted.  Cancelling it cancels the worker.
+     */
+    public CompletableFuture<T> toCompletableFuture() {
+        return future;
+    }
+
+    /**
+     * Get a future which is completed as {@link #toCompletableFuture()} is,
+     * but in the EDT after <code>finished()</code> or {@link #discarded()}
+     * has been called, so that UI work can follow on from it.
+     */
+    public CompletableFuture<T> toEdtFuture() {
+        return edtFuture;
+    }
+
+    /**
+     * Complete the EDT future from the worker's future.  Does nothing
+     * until the worker's future is complete.
+     */
+    private void settleEdt() {
+        if( !future.isDone() )
+            return;
+        future.whenComplete( new BiConsumer<T,Throwable>() {
+            public void accept( T val, Throwable err ) {
+                if( err == null )
+                    edtFuture.complete( val );
+                else
+                    edtFuture.completeExceptionally( err );
+            }
+        });
+    }
+
+    private void settleEdtLater() {
+        SwingUtilities.invokeLater( new Runnable() {
+            public void run() {
+                settleEdt();
+            }
+        });
     }
 
     /**
      * Return the value created by the <code>construct</code> method.  
      * Returns null if either the constructing thread or the current
      * thread was interrupted before a value was produced.
+     * Calling this from the <code>construct()</code> of another worker which uses
+     * the same bounded pool can wait forever once the pool is full.  See
+     * {@link WorkerExecutors#sharedPool()}.
      * 
      * @return the value created by the <code>construct</code> method
      */
     public T get() {
-        while (true) {  
-            Thread t = threadVar.get();
-            if (t == null) {
-                return getValue();
-            }
-            try {
-                t.join();
-            }
-            catch (InterruptedException e) {
-                Thread.currentThread().interrupt(); // propagate
-                return null;
-            }
+        try {
+            threadVar.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // propagate
+            return null;
         }
+        return getValue();
     }
     
     public boolean setupFailed() {
@@ -178,26 +389,17 @@ public abstract class SwingWorker<T> {
     public abstract class InContextRunnable implements Runnable {
     	public abstract Object doRun();
     	public void run() {
-    		Thread th = Thread.currentThread();
-    		ClassLoader ld = th.getContextClassLoader();
-    		try {
-    			log.fine("Setting context class loader to: "+ctxLoader );
-    			th.setContextClassLoader( ctxLoader );
-    			if( subj == null ) {
-    				log.fine("Running without a subject");
-    				Object v = doRun();
-    				log.finer("Generated value: "+v );
-    			} else {
-    				log.fine("Running with subject: "+subj );
-    				Subject.doAsPrivileged( subj, new PrivilegedAction() {
-    					public Object run() {
-    						return doRun();
-    					}
-    				}, ctx);
-    			}
-    		} finally {
-    			th.setContextClassLoader( ld );
+    		if( context.isEmpty() ) {
+    			doRun();
+    			return;
     		}
+    		if( log.isLoggable( Level.FINE ) )
+    			log.fine("Running with subject: "+context.getSubject() );
+    		context.call( new PrivilegedAction<Object>() {
+    			public Object run() {
+    				return doRun();
+    			}
+    		});
     	}
     }
 
@@ -212,25 +414,89 @@ public abstract class SwingWorker<T> {
     		log.log( Level.SEVERE, ex.toString(), ex );
     	}
   
-        final Runnable doFinished = new InContextRunnable() {
-           public Object doRun() { finished(); return null; }
+        doFinished = new InContextRunnable() {
+           public Object doRun() {
+               long st = WorkerMetrics.now();
+               try {
+                   if( discard )
+                       discarded();
+                   else
+                       finished();
+               } finally {
+                   WorkerMetrics.record( SwingWorker.this.getClass(), WorkerMetrics.Phase.FINISH, st );
+                   settleEdt();
+               }
+               return null;
+           }
         };
         
-        final Runnable doSetup = new InContextRunnable() {
-           public Object doRun() { setup(); return null; }
+        doSetup = new InContextRunnable() {
+           public Object doRun() {
+               long st = WorkerMetrics.now();
+               try {
+                   setup();
+               } finally {
+                   WorkerMetrics.record( SwingWorker.this.getClass(), WorkerMetrics.Phase.SETUP, st );
+               }
+               return null;
+           }
         };
 
-        Runnable doConstruct = new InContextRunnable() { 
+        doConstruct = new InContextRunnable() { 
             public Object doRun() {
+                WorkerMetrics.record( SwingWorker.this.getClass(), WorkerMetrics.Phase.QUEUE, started );
+                // interrupted before the executor got to us
+                if( !threadVar.bind( Thread.currentThread() ) ) {
+                    constructed( false );
+                    future.doCancel();
+                    if( joined )
+                        SwingUtilities.invokeLater( doFinished );
+                    else
+                        settleEdtLater();
+                    return null;
+                }
+                boolean ok = false;
+                Throwable failure = null;
+                boolean thrown = false;
                 try {
-	            	SwingUtilities.invokeAndWait( doSetup );
-                    setValue( construct() );
+                    if( !joined )
+                        SwingUtilities.invokeAndWait( doSetup );
+                    long st = WorkerMetrics.now();
+                    try {
+                        setValue( construct() );
+                        ok = true;
+                    } finally {
+                        WorkerMetrics.record( SwingWorker.this.getClass(), WorkerMetrics.Phase.BACKGROUND, st );
+                    }
                 } catch( InterruptedException ex ) {
                 	interrupted = ex;
+                	failure = ex;
                 } catch( java.lang.reflect.InvocationTargetException ex ) {
                 	target = ex;
+                	failure = ex.getTargetException();
+                } catch( RuntimeException ex ) {
+                    failure = ex;
+                    thrown = true;
+                    throw ex;
+                } catch( Error ex ) {
+                    failure = ex;
+                    thrown = true;
+                    throw ex;
                 } finally {
                     threadVar.clear();
+                    // Don't leave an interrupt pending on a pooled thread.  A value
+                    // which construct() already returned is still kept.
+                    Thread.interrupted();
+                    constructed( ok && !discard );
+                    if( ok && !discard )
+                        future.complete( getValue() );
+                    else if( failure != null && !discard )
+                        future.completeExceptionally( failure );
+                    else
+                        future.doCancel();
+                    // finished() won't be called to do it
+                    if( thrown )
+                        settleEdtLater();
                 }
 
                 SwingUtilities.invokeLater(doFinished);
@@ -238,17 +504,75 @@ public abstract class SwingWorker<T> {
             }
         };
 
-        Thread t = new Thread(doConstruct);
-        threadVar = new ThreadVar(t);
+        threadVar = new ThreadVar();
+    }
+
+    /**
+     * Called in the worker thread once <code>construct()</code> is over, before
+     * <code>finished()</code> is queued to the EDT.
+     * @param ok true if <code>construct()</code> returned normally, without the worker
+     *   being interrupted or discarded, so that {@link #getValue()} can be used.
+     */
+    void constructed( boolean ok ) {
     }
 
     /**
-     * Start the worker thread.
+     * Start the worker by handing <code>construct()</code> to {@link #getExecutor()}.
+     * Calling this more than once, or after {@link #interrupt()}, does nothing.
      */
     public void start() {
-        Thread t = threadVar.get();
-        if (t != null) {
-            t.start();
+        launch();
+    }
+
+    /**
+     * Does the work of {@link #start()}.
+     * @return false if the worker was already started or interrupted
+     */
+    boolean launch() {
+        if( !threadVar.start() )
+            return false;
+        started = WorkerMetrics.now();
+        try {
+            getExecutor().execute( doConstruct );
+        } catch( RuntimeException ex ) {
+            // Release anyone waiting in get()
+            threadVar.clear();
+            throw ex;
         }
+        return true;
+    }
+
+    /**
+     * Called instead of {@link #launch()} when this worker is going to wait for,
+     * and then {@link #complete(Object)} with, the value of another worker.
+     * <code>setup()</code> is queued to the EDT, ahead of <code>finished()</code>,
+     * so the caller must call this before that value can be handed over.  If this
+     * worker is interrupted before then, <code>finished()</code> or <code>discarded()</code>
+     * is still called to undo <code>setup()</code>, and if it is launched instead,
+     * <code>setup()</code> is not called again.
+     */
+    void joined() {
+        joined = true;
+        SwingUtilities.invokeLater( doSetup );
+    }
+
+    /**
+     * Complete the worker with the passed value without calling <code>setup()</code>
+     * or <code>construct()</code>.  <code>finished()</code> is called directly when
+     * this is called in the EDT, and is queued to the EDT otherwise.
+     * @return false if the worker was already started or interrupted
+     */
+    boolean complete( T val ) {
+        if( !threadVar.start() )
+            return false;
+        setValue( val );
+        threadVar.clear();
+        future.complete( val );
+        // A joined worker's setup() may still be queued
+        if( SwingUtilities.isEventDispatchThread() && !joined )
+            doFinished.run();
+        else
+            SwingUtilities.invokeLater( doFinished );
+        return true;
     }
 }
\ No newline at end of file
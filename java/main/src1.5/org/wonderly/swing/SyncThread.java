@@ -5,17 +5,28 @@
 package org.wonderly.swing;
 
 import java.awt.Component;
+import java.awt.SecondaryLoop;
+import java.awt.Toolkit;
 import java.lang.reflect.InvocationTargetException;
-import java.security.AccessControlContext;
-import java.security.AccessController;
 import java.security.PrivilegedAction;
-import java.security.PrivilegedActionException;
-import java.security.PrivilegedExceptionAction;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.security.auth.Subject;
 import javax.swing.Action;
 import javax.swing.SwingUtilities;
 
@@ -71,11 +82,40 @@ import javax.swing.SwingUtilities;
  *   th.start();
  * }
  * </pre>
+ * Each instance is also a {@link Future} of its value, and
+ * {@link #toCompletableFuture()} and {@link #toEdtFuture()} provide
+ * <code>CompletableFuture</code>s of it for combining with other asynchronous work.
+ * <pre>
+ * CompletableFuture.allOf( a.toCompletableFuture(), b.toCompletableFuture() )
+ *     .thenRunAsync( showBoth, WorkerExecutors.edt() );
+ * a.start();
+ * b.start();
+ * </pre>
  * @param <R> The returned value for doInBackground
  * @param <P> The type for published values.
  */
-public class SyncThread<R, P> implements Callable<R> {
+public class SyncThread<R, P> implements Callable<R>, Future<R> {
 	private final Logger log = Logger.getLogger(getClass().getName());
+
+	/**
+	 * The ways that {@link #schedule(Runnable)} can run the background work.
+	 */
+	public enum Scheduling {
+		/** A new platform thread for every start(), the historical behavior. */
+		THREAD,
+		/** The shared pool from {@link WorkerExecutors#sharedPool()}. */
+		POOL,
+		/**
+		 * A new virtual thread for every start() on JDK 21 and later, or the
+		 * shared pool on older JDKs.  This suits steps which spend most of their
+		 * time waiting on remote calls.
+		 */
+		VIRTUAL
+	}
+
+	private static volatile Scheduling defScheduling = Scheduling.THREAD;
+	private volatile Scheduling scheduling;
+	private volatile WorkerLane lane;
 	/**
 	 * The set of actions which will be disabled/enabled.
 	 */
@@ -97,10 +137,43 @@ public class SyncThread<R, P> implements Callable<R> {
 	// The list of SyncThreads that will be ran.
 	private volatile ArrayList<SyncThread> threads = null;
 
-	private final boolean setLoader;
-	private final ClassLoader ctxLoader;
-	private final Subject subj;
-	private final AccessControlContext ctx;
+	// The steps which each added step must wait for.
+	private volatile Map<SyncThread<?,?>,SyncThread<?,?>[]> depends = null;
+
+	// How many added steps may run at once.
+	private volatile int parallelism = 1;
+
+	// The values of the steps this one depends on, set before it runs.
+	private volatile Object[] dependValues;
+
+	// How long each step may run, and how long the whole chain may run, in nanos.
+	private volatile long stepTimeout, deadline;
+
+	// When the run() of this step must be over, from System.nanoTime(), or 0.
+	private volatile long expires;
+
+	// Values passed to publish() which have not been given to process() yet.
+	private final Object publishLock = new Object();
+	private ArrayList<P> published;
+	private boolean publishPending;
+	private volatile long lastDelivery;
+	private volatile int publishRate;
+	private volatile int publishBatch;
+	// The steps started by runParallelSteps() which are not over yet
+	private volatile List<SyncThread<?,?>> activeSteps;
+	private volatile int publishLimit;
+
+	// Completed when the current or last run of this instance is over.
+	private volatile StepFuture future = new StepFuture();
+	private volatile CompletableFuture<R> edtFuture;
+	private final Object futureLock = new Object();
+
+	// The thread running this instance, so that cancel() can interrupt it,
+	// and whether a run has started with the current future.
+	private Thread runner;
+	private boolean entered;
+
+	private final ContextPropagation.Context context;
 	private volatile ProgressObserver observer;
 
 	public SyncThread( ProgressObserver obs ) {
@@ -109,36 +182,10 @@ public class SyncThread<R, P> implements Callable<R> {
 	}
 	/**
 	 * Collects all the context for execution, any active Subject and context class loader will
-	 * be remebered and activated.
+	 * be remebered and activated, as controlled by {@link ContextPropagation#getDefault()}.
 	 */
 	public SyncThread() {
-		boolean loaded = false;
-		ctxLoader = Thread.currentThread().getContextClassLoader();
-		Subject createdSubject = null;
-		final AccessControlContext rctx[] = new AccessControlContext[1];
-		try {
-			createdSubject = AccessController.doPrivileged( new PrivilegedExceptionAction<Subject>() {
-				public Subject run() throws Exception {
-					return Subject.getSubject( rctx[0] = AccessController.getContext() );
-				}
-			});
-			// Everything worked, so set the exception
-			loaded = true;
-		} catch( PrivilegedActionException ex ) {
-			// Construction is not complete, so don't report this exception using
-			// innerReportException.
-			if( log.isLoggable( Level.FINE ) )
-				log.log( Level.FINE, ex.toString(), ex );
-		} catch( RuntimeException ex ) {
-			// Construction is not complete, so don't report this exception using
-			// innerReportException.
-			if( log.isLoggable( Level.FINE ) )
-				log.log( Level.FINE, ex.toString(), ex );
-			throw ex;
-		}
-		ctx = rctx[0];
-		subj = createdSubject;
-		setLoader = loaded;
+		context = ContextPropagation.getDefault().capture();
 	}
 
 	/**
@@ -253,23 +300,199 @@ public class SyncThread<R, P> implements Callable<R> {
 
 	/** 
 	 * Call publish from {@link #run()} to send preliminary data
-	 * to be processed in the EDT.
+	 * to be processed in the EDT.  This does not wait for the EDT, unless
+	 * {@link #setMaxPendingPublish(int)} has been used to bound the values waiting.
+	 * All values published before the EDT gets around to them are
+	 * passed to {@link #process(List)} together, up to {@link #getMaxProcessBatch()}
+	 * at a time, and any values still pending when {@link #run()} returns are
+	 * delivered before {@link #done()}.
+	 * <p>
+	 * Before this version, publish() waited in <code>invokeAndWait()</code> until
+	 * the value had been processed, which kept a fast {@link #run()} from getting
+	 * ahead of the EDT.  It no longer does by default.  A step which relies on that,
+	 * or which publishes faster than the EDT can keep up with, should set
+	 * {@link #setMaxPendingPublish(int)} so that publish() waits for room instead.
 	 */
 	protected void publish(final P value) {
-		try {
-			runInSwing(new InContextRunnable() {
-				public Object doRun() {
-					process(value);
-					return null;
+		synchronized (publishLock) {
+			int limit = publishLimit;
+			if (limit > 0 && !SwingUtilities.isEventDispatchThread()) {
+				try {
+					while (published != null && published.size() >= limit) {
+						publishLock.wait();
+					}
+				} catch (InterruptedException ex) {
+					// Keep the value, and let run() see the interrupt
+					Thread.currentThread().interrupt();
 				}
-			}, false);
-		} catch (InterruptedException ex) { 
-			innerReportException(ex);
+			}
+			if (published == null) {
+				published = new ArrayList<P>();
+			}
+			published.add(value);
+			if (publishPending) {
+				return;
+			}
+			publishPending = true;
 		}
+		schedulePublished();
 	}
 
 	/**
-	 * Override this to process data that was sent from {@link #publish()} in the EDT.
+	 * Arranges for the pending published values to be delivered in the EDT,
+	 * no sooner than {@link #getMaxPublishRate()} allows.
+	 */
+	private void schedulePublished() {
+		final Runnable deliver = new InContextRunnable<Object>() {
+			public Object doRun() {
+				deliverPublished(false);
+				return null;
+			}
+		};
+		int rate = publishRate;
+		long delay = rate > 0 ? lastDelivery + (1000 / rate) - System.currentTimeMillis() : 0;
+		if (delay <= 0) {
+			SwingUtilities.invokeLater(deliver);
+		} else {
+			javax.swing.Timer tm = new javax.swing.Timer((int)delay, new java.awt.event.ActionListener() {
+				public void actionPerformed(java.awt.event.ActionEvent ev) {
+					deliver.run();
+				}
+			});
+			tm.setRepeats(false);
+			tm.start();
+		}
+	}
+
+	/**
+	 * Limit how often published values are delivered to {@link #process(List)}.
+	 * Together with {@link #setMaxProcessBatch(int)}, this bounds the EDT time
+	 * which published values take, to at most that many values per delivery.
+	 * This only paces delivery, and does not slow {@link #run()}; use
+	 * {@link #setMaxPendingPublish(int)} for that.
+	 * @param perSecond the maximum deliveries per second, or 0 to deliver on
+	 *   every pass through the EDT queue.
+	 */
+	public void setMaxPublishRate(int perSecond) {
+		if (perSecond < 0) {
+			throw new IllegalArgumentException("rate can not be negative: "+perSecond);
+		}
+		publishRate = perSecond;
+	}
+
+	/**
+	 * Get the maximum number of deliveries to {@link #process(List)} per second.
+	 * @return 0 if not limited
+	 */
+	public int getMaxPublishRate() {
+		return publishRate;
+	}
+
+	/**
+	 * Limit how many values are passed to one call of {@link #process(List)}.
+	 * Any more values which are waiting are carried over to the next delivery,
+	 * except when {@link #run()} has returned, when they are all delivered,
+	 * in batches of this size, before {@link #done()}.
+	 * @param max the most values per call, or 0 for no limit
+	 */
+	public void setMaxProcessBatch(int max) {
+		if (max < 0) {
+			throw new IllegalArgumentException("batch size can not be negative: "+max);
+		}
+		publishBatch = max;
+	}
+
+	/**
+	 * Get the most values passed to one call of {@link #process(List)}.
+	 * @return 0 if not limited
+	 */
+	public int getMaxProcessBatch() {
+		return publishBatch;
+	}
+
+	/**
+	 * Limit how many published values can wait for the EDT.  Once there are this
+	 * many, {@link #publish} waits, outside of the EDT, until some have been
+	 * delivered, so that a fast {@link #run()} can not get ahead of the EDT.
+	 * @param max the most values waiting, or 0 for no limit
+	 */
+	public void setMaxPendingPublish(int max) {
+		if (max < 0) {
+			throw new IllegalArgumentException("limit can not be negative: "+max);
+		}
+		publishLimit = max;
+	}
+
+	/**
+	 * Get the most published values which can wait for the EDT.
+	 * @return 0 if not limited
+	 */
+	public int getMaxPendingPublish() {
+		return publishLimit;
+	}
+
+	/**
+	 * Hands pending published values to {@link #process(List)}, up to
+	 * {@link #getMaxProcessBatch()} of them unless <code>all</code> is set.  Any
+	 * left over are scheduled for the next delivery.  This runs in the EDT.
+	 */
+	private void deliverPublished(boolean all) {
+		boolean more;
+		do {
+			List<P> chunk;
+			synchronized (publishLock) {
+				chunk = published;
+				int max = publishBatch;
+				if (chunk != null && max > 0 && chunk.size() > max) {
+					List<P> head = chunk.subList(0, max);
+					chunk = new ArrayList<P>(head);
+					head.clear();
+					more = true;
+				} else {
+					published = null;
+					more = false;
+				}
+				publishPending = more && !all;
+				publishLock.notifyAll();
+			}
+			if (chunk == null || chunk.isEmpty()) {
+				return;
+			}
+			lastDelivery = System.currentTimeMillis();
+			try {
+				process(chunk);
+			} catch (RuntimeException ex) {
+				innerReportException(ex);
+			}
+			if (more && !all) {
+				schedulePublished();
+			}
+		} while (more && all);
+	}
+
+	/**
+	 * Override this to process, in the EDT, all of the values that were sent from
+	 * {@link #publish} since the last call.  This implementation calls
+	 * {@link #process(Object)} for each value, in the order they were published.
+	 * <p>
+	 * When <code>P</code> is itself a List type, such as
+	 * <code>SyncThread&lt;String,List&lt;String&gt;&gt;</code>, the two process methods
+	 * have the same erasure, and a subclass which overrides
+	 * <code>process(List&lt;String&gt;)</code> no longer compiles with a name clash.
+	 * Such a subclass must override this method instead, and handle each
+	 * published list in the values passed to it.
+	 * @param values the published values, oldest first
+	 */
+	protected void process(List<P> values) {
+		for (P value : values) {
+			process(value);
+		}
+	}
+
+	/**
+	 * Override this to process data that was sent from {@link #publish} in the EDT.
+	 * Overriding {@link #process(List)} instead lets all the values be handled
+	 * with a single update of the UI.
 	 */
 	protected void process(P value) {}
 
@@ -287,11 +510,382 @@ public class SyncThread<R, P> implements Callable<R> {
 		threads.add(thread);
 	}
 
+	/**
+	 * Adds an additional SyncThread instance which must not run until all of the
+	 * passed steps have completed.  When {@link #setParallelism(int)} allows more
+	 * than one step at a time, steps which don't depend on each other run
+	 * concurrently.  The step can use {@link #getDependencyValues()} to get the
+	 * values its dependencies returned from {@link #run()}.
+	 * 
+	 * @param thread the step to add
+	 * @param dependsOn steps which must already have been added to this instance
+	 * @throws IllegalArgumentException if one of the dependencies has not been added
+	 */
+	public void add(SyncThread<?,?> thread, SyncThread<?,?>... dependsOn) {
+		for (SyncThread<?,?> dep : dependsOn) {
+			if (threads == null || !threads.contains(dep)) {
+				throw new IllegalArgumentException("dependency must be added first: "+dep.getName());
+			}
+		}
+		add(thread);
+		if (depends == null) {
+			depends = new HashMap<SyncThread<?,?>,SyncThread<?,?>[]>();
+		}
+		depends.put(thread, dependsOn.clone());
+	}
+
+	/**
+	 * Set how many added steps may run at the same time.  The default of 1 runs
+	 * the steps one after another in the order they were added.
+	 * @param cnt the maximum number of concurrently running steps
+	 */
+	public void setParallelism(int cnt) {
+		if (cnt < 1) {
+			throw new IllegalArgumentException("parallelism must be at least 1: "+cnt);
+		}
+		parallelism = cnt;
+	}
+
+	/**
+	 * Get how many added steps may run at the same time.
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * When this instance was added with {@link #add(SyncThread, SyncThread...)},
+	 * this returns the values the dependencies returned from {@link #run()}, in
+	 * the order the dependencies were passed.  Otherwise an empty array is returned.
+	 */
+	public Object[] getDependencyValues() {
+		Object[] vals = dependValues;
+		return vals == null ? new Object[0] : vals.clone();
+	}
+
+	/**
+	 * Set how long {@link #run()} may take.  For an instance with added steps,
+	 * this is the limit for each step which has not had its own limit set.
+	 * A step which runs too long is interrupted, and a {@link StepTimeoutException}
+	 * is passed to {@link #innerReportException(Throwable)} once {@link #run()}
+	 * returns.  The steps after it are not run.
+	 * <p>
+	 * A step with a limit runs {@link #run()} in a thread of its own, which is not
+	 * taken from its lane or pool, while its lane thread waits for it.  So it uses
+	 * no more lane slots than a step without one.  When the time is up, {@link #run()}
+	 * is interrupted and abandoned, so {@link #done()} is still called, and the
+	 * components enabled again, even if it is stuck in a call which ignores interrupts,
+	 * such as a blocking socket read.  Such a {@link #run()} goes on in the background
+	 * until the call returns, and should not change anything the UI uses after that.
+	 * @param timeout the limit, or 0 for no limit
+	 * @param unit the unit of timeout
+	 */
+	public void setStepTimeout(long timeout, TimeUnit unit) {
+		if (timeout < 0) {
+			throw new IllegalArgumentException("timeout can not be negative: "+timeout);
+		}
+		stepTimeout = unit.toNanos(timeout);
+	}
+
+	/**
+	 * Get how long {@link #run()}, or each added step, may take.
+	 * @return the limit, or 0 if there is none
+	 */
+	public long getStepTimeout(TimeUnit unit) {
+		return unit.convert(stepTimeout, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Set how long all of the added steps together may take, starting when
+	 * the chain starts.  Once the time is up, the running steps are handled
+	 * as for {@link #setStepTimeout(long, TimeUnit)}.
+	 * @param timeout the limit, or 0 for no limit
+	 * @param unit the unit of timeout
+	 */
+	public void setDeadline(long timeout, TimeUnit unit) {
+		if (timeout < 0) {
+			throw new IllegalArgumentException("timeout can not be negative: "+timeout);
+		}
+		deadline = unit.toNanos(timeout);
+	}
+
+	/**
+	 * Get how long all of the added steps together may take.
+	 * @return the limit, or 0 if there is none
+	 */
+	public long getDeadline(TimeUnit unit) {
+		return unit.convert(deadline, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Thrown when a step runs past its {@link #setStepTimeout(long, TimeUnit) timeout}
+	 * or the {@link #setDeadline(long, TimeUnit) deadline} of its chain.
+	 */
+	public static class StepTimeoutException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		public StepTimeoutException(String msg) {
+			super(msg);
+		}
+	}
+
+	/**
+	 * The future of this instance, which cancels it when cancelled.
+	 */
+	private class StepFuture extends CompletableFuture<R> {
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return SyncThread.this.cancel(mayInterruptIfRunning);
+		}
+		boolean doCancel() {
+			return super.cancel(false);
+		}
+	}
+
+	/**
+	 * Cancel this instance.  If it has not started, it will not run.  If it is
+	 * running added steps, no more steps are started, and {@link #done()} is
+	 * called once the running steps are over.  A step added to another instance
+	 * which is cancelled is skipped, or stopped if it is running, and the steps
+	 * after it, or which depend on it, still run.
+	 * @param mayInterruptIfRunning if true, the thread running this instance is interrupted
+	 * @return false if this instance was already over
+	 */
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		if (!future.doCancel()) {
+			return false;
+		}
+		if (mayInterruptIfRunning) {
+			synchronized (futureLock) {
+				if (runner != null) {
+					runner.interrupt();
+				}
+			}
+			// The thread running the chain may be busy running one of them
+			List<SyncThread<?,?>> active = activeSteps;
+			if (active != null) {
+				cancelSteps(active);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Cancel the parallel steps which are running, or waiting to start.
+	 */
+	private static void cancelSteps(List<SyncThread<?,?>> active) {
+		List<SyncThread<?,?>> steps;
+		synchronized (active) {
+			steps = new ArrayList<SyncThread<?,?>>(active);
+		}
+		for (SyncThread<?,?> thread : steps) {
+			thread.cancel(true);
+		}
+	}
+
+	/**
+	 * Check if this instance was cancelled before it was over.
+	 */
+	public boolean isCancelled() {
+		return future.isCancelled();
+	}
+
+	/**
+	 * Check if this instance is over.
+	 */
+	public boolean isDone() {
+		return future.isDone();
+	}
+
+	/**
+	 * Wait for this instance to be over, and get its value.
+	 * @throws ExecutionException if a step failed
+	 * @throws java.util.concurrent.CancellationException if this instance was cancelled
+	 */
+	public R get() throws InterruptedException, ExecutionException {
+		return future.get();
+	}
+
+	/**
+	 * Wait at most the passed time for this instance to be over, and get its value.
+	 * @throws ExecutionException if a step failed
+	 * @throws java.util.concurrent.CancellationException if this instance was cancelled
+	 * @throws TimeoutException if the time ran out
+	 */
+	public R get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		return future.get(timeout, unit);
+	}
+
+	/**
+	 * Get a future which is completed in the background thread when this instance
+	 * is over, after {@link #done()} has been called unless {@link #later()} was used.
+	 * It is completed with {@link #getValue()}, or for an instance with added steps,
+	 * the value of the last step.  If a step fails, it is completed with that
+	 * exception.  Cancelling it cancels this instance.  Starting an instance
+	 * again after it is over gives it a new future, so get the future after
+	 * each start.
+	 */
+	public CompletableFuture<R> toCompletableFuture() {
+		return future;
+	}
+
+	/**
+	 * Get a future which is completed as {@link #toCompletableFuture()} is,
+	 * but in the EDT, so that UI work can follow on from it.
+	 */
+	public CompletableFuture<R> toEdtFuture() {
+		CompletableFuture<R> f = edtFuture;
+		if (f == null) {
+			synchronized (futureLock) {
+				if (edtFuture == null) {
+					edtFuture = WorkerExecutors.completeInEdt(future);
+				}
+				f = edtFuture;
+			}
+		}
+		return f;
+	}
+
+	/**
+	 * Complete the future of this instance.
+	 */
+	private void settle(R val, Throwable failure) {
+		if (failure == null) {
+			future.complete(val);
+		} else {
+			future.completeExceptionally(failure);
+		}
+	}
+
+	/**
+	 * Note the thread running this instance.
+	 * @return false if this instance was cancelled before it started
+	 */
+	private boolean enter() {
+		synchronized (futureLock) {
+			if (future.isCancelled()) {
+				return false;
+			}
+			runner = Thread.currentThread();
+			entered = true;
+			return true;
+		}
+	}
+
+	/**
+	 * Give this instance a new future if its last run is over, so that it
+	 * can be run again.  An instance which was cancelled before it started
+	 * keeps its cancelled future, and will not run.
+	 */
+	private void rearm() {
+		synchronized (futureLock) {
+			if (entered && future.isDone()) {
+				future = new StepFuture();
+				edtFuture = null;
+				entered = false;
+			}
+		}
+	}
+
+	/**
+	 * Run an added step in this thread, unless it has been cancelled.  A step
+	 * which is cancelled while it runs is stopped as with {@link #cancel(boolean)},
+	 * without failing the steps around it.
+	 * @return false if the step was cancelled
+	 */
+	private static boolean runStep(SyncThread<?,?> thread) throws InterruptedException {
+		thread.rearm();
+		if (!thread.enter()) {
+			return false;
+		}
+		try {
+			thread.doStep(false);
+		} catch (InterruptedException ex) {
+			if (!thread.isCancelled()) {
+				throw ex;
+			}
+		} catch (RuntimeException ex) {
+			if (!thread.isCancelled()) {
+				throw ex;
+			}
+		} finally {
+			thread.leave();
+		}
+		if (thread.isCancelled()) {
+			// Clear the interrupt which cancelled it
+			Thread.interrupted();
+			return false;
+		}
+		return true;
+	}
+
+	private void leave() {
+		synchronized (futureLock) {
+			runner = null;
+		}
+	}
+
+	/**
+	 * Set the {@link Scheduling} used by all instances which have not had
+	 * {@link #setScheduling(Scheduling)} called.
+	 * @param how the scheduling to use, null restores {@link Scheduling#THREAD}
+	 */
+	public static void setDefaultScheduling( Scheduling how ) {
+		defScheduling = how == null ? Scheduling.THREAD : how;
+	}
+
+	/**
+	 * Get the {@link Scheduling} used by all instances which have not had
+	 * {@link #setScheduling(Scheduling)} called.
+	 */
+	public static Scheduling getDefaultScheduling() {
+		return defScheduling;
+	}
+
+	/**
+	 * Set the {@link Scheduling} used by {@link #schedule(Runnable)} for this instance.
+	 * @param how the scheduling to use, null to use {@link #getDefaultScheduling()}
+	 */
+	public void setScheduling( Scheduling how ) {
+		scheduling = how;
+	}
+
+	/**
+	 * Get the {@link Scheduling} used by {@link #schedule(Runnable)} for this instance.
+	 */
+	public Scheduling getScheduling() {
+		Scheduling how = scheduling;
+		return how != null ? how : defScheduling;
+	}
+
+	/**
+	 * Put this instance in the passed lane, so that its background work
+	 * competes only with the other work in that lane.  A lane takes the
+	 * place of {@link #getScheduling()}.  The steps added to this instance
+	 * run in their own lanes, or in this lane if they have none.  With
+	 * {@link #setParallelism(int)}, this instance holds one of its lane's
+	 * threads while its steps run, and runs any steps which are still waiting
+	 * for a thread of their lane itself.
+	 * @param lane the lane to use, or null to use the scheduling
+	 */
+	public void setLane( WorkerLane lane ) {
+		this.lane = lane;
+	}
+
+	/**
+	 * Get the lane which this instance's background work runs in.
+	 * @return null if no lane has been set
+	 */
+	public WorkerLane getLane() {
+		return lane;
+	}
+
 	/**
 	 * This is the place where the {@link #run()} thread is allocated.
-	 * This implementation just uses <code>new Thread(r).start()</code>
-	 * to initiate the operation.  Subclasses can be created which use
-	 * thread pools or other mechanisms.
+	 * This implementation uses {@link #getLane()}, or if there is no lane,
+	 * {@link #getScheduling()} to decide whether to use
+	 * <code>new Thread(r).start()</code>, the shared pool or a virtual
+	 * thread to initiate the operation.  Subclasses can be created which use
+	 * other thread pools or other mechanisms.
 	 * <p>
 	 * The Runnable passed should be queued to execute/running when this
 	 * method returns.
@@ -299,17 +893,35 @@ public class SyncThread<R, P> implements Callable<R> {
 	 * @param r the Runnable to execute.
 	 */
 	public void schedule( Runnable r ) {
-		new Thread( r ).start();
+		WorkerLane l = lane;
+		if( l != null ) {
+			l.execute( r );
+			return;
+		}
+		switch( getScheduling() ) {
+			case POOL:
+				WorkerExecutors.sharedPool().execute( r );
+				break;
+			case VIRTUAL:
+				WorkerExecutors.virtualThreads().execute( r );
+				break;
+			default:
+				new Thread( r ).start();
+				break;
+		}
 	}
 
 	/**
 	 * Start this process or executor sequence in a dedicated thread.
 	 */
 	public void start() {
+		rearm();
+		final long started = WorkerMetrics.now();
 		// If thread list is null, run as a single thread sequence.
 		if (threads == null) {
 			schedule( new InContextRunnable() {
 				public Object doRun() {
+					WorkerMetrics.record( SyncThread.this.getClass(), WorkerMetrics.Phase.QUEUE, started );
 					runSingle(false);
 					return null;
 				}
@@ -318,6 +930,7 @@ public class SyncThread<R, P> implements Callable<R> {
 		} else {
 			schedule( new InContextRunnable() {
 				public Object doRun() {
+					WorkerMetrics.record( SyncThread.this.getClass(), WorkerMetrics.Phase.QUEUE, started );
 					runAllSteps();
 					return threadVal;
 				}
@@ -326,13 +939,45 @@ public class SyncThread<R, P> implements Callable<R> {
 	}
 
 	/**
-	 *  Run this process or execution sequence in the calling thread.
+	 *  Run this process or execution sequence, returning when it is over.
+	 *  Outside of the EDT, it runs in the calling thread.  In the EDT, it runs
+	 *  in a thread from {@link #schedule(Runnable)} while the EDT keeps dispatching
+	 *  events in a <code>java.awt.SecondaryLoop</code>, so that the UI still paints
+	 *  and progress is still shown.  Any exception thrown by the work is rethrown
+	 *  in the EDT.
 	 */
 	public void block() {
-		if( SwingUtilities.isEventDispatchThread() ) {
-			if (log.isLoggable(Level.FINE))
-				log.fine("Called block(), already in event thread");
+		rearm();
+		if( !SwingUtilities.isEventDispatchThread() ) {
+			runBlocked();
+			return;
 		}
+		if (log.isLoggable(Level.FINE))
+			log.fine("Called block() in event thread, dispatching events until done");
+		final SecondaryLoop loop = Toolkit.getDefaultToolkit().getSystemEventQueue().createSecondaryLoop();
+		final Throwable[] failure = new Throwable[1];
+		schedule( new InContextRunnable<Object>() {
+			public Object doRun() {
+				try {
+					runBlocked();
+				} catch (Throwable ex) {
+					failure[0] = ex;
+				} finally {
+					loop.exit();
+				}
+				return null;
+			}
+		});
+		// Returns at once if exit() has already been called
+		loop.enter();
+		if (failure[0] instanceof RuntimeException) {
+			throw (RuntimeException)failure[0];
+		} else if (failure[0] instanceof Error) {
+			throw (Error)failure[0];
+		}
+	}
+
+	private void runBlocked() {
 		// If thread list is null, run as a single sequence.
 		if (threads == null) {
 			runSingle(false);
@@ -355,6 +1000,7 @@ public class SyncThread<R, P> implements Callable<R> {
 	 * behaviors.
 	 */
 	public void later() {
+		rearm();
 		runSingle(true);
 	}
 
@@ -365,6 +1011,11 @@ public class SyncThread<R, P> implements Callable<R> {
 	 * or later in the EDT queue.
 	 */
 	private void runSingle(boolean later) {
+		if (!enter()) {
+			return;
+		}
+		long to = stepTimeout > 0 ? stepTimeout : deadline;
+		expires = to > 0 ? System.nanoTime() + to : 0;
 		if( observer != null )
 			observer.startProcessSteps( 2 );
 		try {
@@ -375,6 +1026,8 @@ public class SyncThread<R, P> implements Callable<R> {
 				observer.progressStepsDone( 2 );
 		} catch (InterruptedException ex) {
 			innerReportException(ex);
+		} finally {
+			leave();
 		}
 	}
 	/**
@@ -388,26 +1041,47 @@ public class SyncThread<R, P> implements Callable<R> {
 	 *  This method is used to run the internal list of steps that where
 	 *  added to this instance.
 	 */
+	@SuppressWarnings("unchecked")
 	private void runAllSteps() {
+		if (!enter()) {
+			return;
+		}
+		Throwable failure = null;
 		try {
 			if( observer != null )
 				observer.startProcessSteps( threads.size() + 1 );
+			long end = deadline > 0 ? System.nanoTime() + deadline : 0;
 			doSetup(false);
 			int cnt = 0;
-			for (SyncThread thread : threads) {
-				++cnt;
-				if( observer != null )
-					observer.progressToStep( cnt, thread.getName() );
-				thread.doStep(false);
-				threadVal = thread.getValue();
+			if (parallelism > 1) {
+				cnt = runParallelSteps(end);
+			} else {
+				for (SyncThread<?,?> thread : threads) {
+					if (future.isCancelled()) {
+						break;
+					}
+					++cnt;
+					if( observer != null )
+						observer.progressToStep( cnt, thread.getName() );
+					thread.dependValues = dependencyValues(thread);
+					thread.expires = stepExpiry(thread, end);
+					if (runStep(thread)) {
+						threadVal = thread.getValue();
+					}
+				}
 			}
 			if( observer != null )
 				observer.progressStepsDone( ++cnt );
 		} catch (RuntimeException ex) {
+			failure = ex;
 			innerReportException(ex);
 			throw ex;
 		} catch (InterruptedException ex) { 
+			failure = ex;
 			innerReportException(ex);
+		} catch (Error ex) {
+			failure = ex;
+			throw ex;
 		} finally {
 			try {
 				doDone(false);
@@ -416,10 +1090,196 @@ public class SyncThread<R, P> implements Callable<R> {
 			} catch (RuntimeException ex) {
 				innerReportException(ex);
 				throw ex;
+			} finally {
+				leave();
+				settle((R)threadVal, failure);
 			}
 		}		
 	}
 
+	/**
+	 * Get when the passed step must be done, using its own timeout or the
+	 * step timeout of this instance, and the end of the chain.
+	 * @return the time from System.nanoTime(), or 0 for no limit
+	 */
+	private long stepExpiry(SyncThread<?,?> thread, long end) {
+		long to = thread.stepTimeout > 0 ? thread.stepTimeout : stepTimeout;
+		long exp = to > 0 ? System.nanoTime() + to : 0;
+		if (end != 0 && (exp == 0 || end - exp < 0)) {
+			exp = end;
+		}
+		return exp;
+	}
+
+	/**
+	 * Get the values of the steps the passed step depends on.
+	 */
+	private Object[] dependencyValues(SyncThread<?,?> thread) {
+		SyncThread<?,?>[] deps = depends == null ? null : depends.get(thread);
+		if (deps == null) {
+			return null;
+		}
+		Object[] vals = new Object[deps.length];
+		for (int i = 0; i < deps.length; ++i) {
+			vals[i] = deps[i].getValue();
+		}
+		return vals;
+	}
+
+	/**
+	 * Runs the added steps with at most {@link #getParallelism()} of them active at
+	 * once, starting each step as soon as all of its dependencies have completed.
+	 * Each step is started with {@link #schedule(Runnable)}, and while this thread
+	 * waits, it runs any of them which have not been started yet itself, so
+	 * that steps in a lane which this thread is using up can still run.  All calls to the
+	 * {@link ProgressObserver} are made from the calling thread, one per completed step.
+	 * If a step fails, no more steps are started and the failure is thrown once
+	 * the running steps have finished.  If this thread is interrupted, as by
+	 * {@link #cancel(boolean)}, no more steps are started, the running steps are
+	 * cancelled, and the InterruptedException is thrown once they are over.
+	 * 
+	 * @param end when the chain must be done, from System.nanoTime(), or 0
+	 * @return the number of steps completed
+	 */
+	private int runParallelSteps(long end) throws InterruptedException {
+		final Map<SyncThread<?,?>,Integer> waiting = new HashMap<SyncThread<?,?>,Integer>();
+		final Map<SyncThread<?,?>,List<SyncThread<?,?>>> dependents = new HashMap<SyncThread<?,?>,List<SyncThread<?,?>>>();
+		final LinkedList<SyncThread<?,?>> ready = new LinkedList<SyncThread<?,?>>();
+		for (SyncThread<?,?> thread : threads) {
+			SyncThread<?,?>[] deps = depends == null ? null : depends.get(thread);
+			if (deps == null || deps.length == 0) {
+				ready.add(thread);
+				continue;
+			}
+			waiting.put(thread, deps.length);
+			for (SyncThread<?,?> dep : deps) {
+				List<SyncThread<?,?>> l = dependents.get(dep);
+				if (l == null) {
+					dependents.put(dep, l = new ArrayList<SyncThread<?,?>>());
+				}
+				l.add(thread);
+			}
+		}
+
+		// The steps which have been scheduled and have not reported back
+		final List<SyncThread<?,?>> active = new ArrayList<SyncThread<?,?>>();
+		activeSteps = active;
+		try {
+			return runStepGraph(end, ready, waiting, dependents, active);
+		} finally {
+			activeSteps = null;
+		}
+	}
+
+	/**
+	 * Does the work of {@link #runParallelSteps(long)}, once it has worked out
+	 * which steps are ready and which are waiting for others.
+	 */
+	private int runStepGraph(long end, LinkedList<SyncThread<?,?>> ready,
+			Map<SyncThread<?,?>,Integer> waiting,
+			Map<SyncThread<?,?>,List<SyncThread<?,?>>> dependents,
+			List<SyncThread<?,?>> active) throws InterruptedException {
+		final BlockingQueue<Object[]> finished = new LinkedBlockingQueue<Object[]>();
+		// Steps which were scheduled but have not started yet.  Rather than
+		// waiting on a full lane or pool, which this thread may be holding
+		// a place in, this thread takes them back and runs them itself.
+		final ConcurrentLinkedQueue<ParallelStep> unstarted = new ConcurrentLinkedQueue<ParallelStep>();
+		Throwable failure = null;
+		InterruptedException interrupted = null;
+		boolean stopped = false;
+		int running = 0;
+		int cnt = 0;
+		while (!ready.isEmpty() || running > 0) {
+			if (!stopped && (interrupted != null || future.isCancelled())) {
+				// Nothing more is started.  cancel(true) stops what is running,
+				// and so must an interrupt from elsewhere, then it is waited for.
+				stopped = true;
+				if (interrupted != null) {
+					cancelSteps(active);
+				}
+			}
+			while (!stopped && failure == null && running < parallelism && !ready.isEmpty()) {
+				final SyncThread<?,?> thread = ready.removeFirst();
+				thread.dependValues = dependencyValues(thread);
+				thread.expires = stepExpiry(thread, end);
+				// Before it can be cancelled, so that the cancel is not lost
+				thread.rearm();
+				synchronized (active) {
+					active.add(thread);
+				}
+				++running;
+				final ParallelStep step = new ParallelStep(thread, finished);
+				unstarted.add(step);
+				SyncThread<?,?> runner = thread.getLane() != null ? thread : this;
+				runner.schedule(new InContextRunnable<Object>() {
+					public Object doRun() {
+						step.run();
+						return null;
+					}
+				});
+			}
+			if (running == 0) {
+				break;
+			}
+			Object[] res;
+			try {
+				while ((res = finished.poll()) == null) {
+					ParallelStep step = unstarted.poll();
+					if (step == null) {
+						res = finished.take();
+						break;
+					}
+					step.run();
+				}
+			} catch (InterruptedException ex) {
+				// The steps still running must be over before done() is called
+				if (interrupted == null) {
+					interrupted = ex;
+				}
+				continue;
+			}
+			--running;
+			SyncThread<?,?> thread = (SyncThread<?,?>)res[0];
+			synchronized (active) {
+				active.remove(thread);
+			}
+			Throwable err = (Throwable)res[1];
+			if (err != null) {
+				if (failure == null) {
+					failure = err;
+				}
+				continue;
+			}
+			++cnt;
+			if ((Boolean)res[2]) {
+				threadVal = thread.getValue();
+			}
+			if( observer != null )
+				observer.progressToStep( cnt, thread.getName() );
+			List<SyncThread<?,?>> l = dependents.get(thread);
+			for (int i = 0; l != null && i < l.size(); ++i) {
+				SyncThread<?,?> dep = l.get(i);
+				int left = waiting.get(dep) - 1;
+				waiting.put(dep, left);
+				if (left == 0) {
+					ready.add(dep);
+				}
+			}
+		}
+		if (interrupted != null) {
+			throw interrupted;
+		} else if (failure instanceof InterruptedException) {
+			throw (InterruptedException)failure;
+		} else if (failure instanceof RuntimeException) {
+			throw (RuntimeException)failure;
+		} else if (failure instanceof Error) {
+			throw (Error)failure;
+		} else if (failure != null) {
+			throw new RuntimeException("Step failed", failure);
+		}
+		return cnt;
+	}
+
 	/**
 	 * Performs the three components of the execution model.  The 
 	 * {@link #setup()}, {@link #run()}, {@link #done()} steps are done in order.
@@ -428,10 +1288,37 @@ public class SyncThread<R, P> implements Callable<R> {
 	 * @throws java.lang.InterruptedException
 	 */
 	private void doStep(boolean later) throws InterruptedException {
+		Throwable failure = null;
+		try {
+			doStepWork(later);
+		} catch (InterruptedException ex) {
+			failure = ex;
+			throw ex;
+		} catch (RuntimeException ex) {
+			failure = ex;
+			throw ex;
+		} catch (Error ex) {
+			failure = ex;
+			throw ex;
+		} finally {
+			settle(value, failure);
+		}
+	}
+
+	private void doStepWork(boolean later) throws InterruptedException {
 		try {
 			try {
 				doSetup(later);
-				doRun();
+				long st = WorkerMetrics.now();
+				try {
+					if (expires == 0) {
+						doRun();
+					} else {
+						runTimed(expires);
+					}
+				} finally {
+					WorkerMetrics.record( getClass(), WorkerMetrics.Phase.BACKGROUND, st );
+				}
 			} catch (RuntimeException ex) {
 				innerReportException(ex);
 				throw ex;
@@ -446,6 +1333,154 @@ public class SyncThread<R, P> implements Callable<R> {
 		}
 	}
 
+	/**
+	 * One step started by {@link #runParallelSteps(long)}, which is run by
+	 * whichever thread gets to it first.
+	 */
+	private static class ParallelStep {
+		private final SyncThread<?,?> thread;
+		private final BlockingQueue<Object[]> finished;
+		private final AtomicBoolean started = new AtomicBoolean();
+
+		ParallelStep(SyncThread<?,?> thread, BlockingQueue<Object[]> finished) {
+			this.thread = thread;
+			this.finished = finished;
+		}
+
+		void run() {
+			if (!started.compareAndSet(false, true)) {
+				return;
+			}
+			Throwable err = null;
+			boolean ran = false;
+			try {
+				ran = runStep(thread);
+			} catch (Throwable ex) {
+				err = ex;
+			}
+			finished.add(new Object[] { thread, err, ran });
+		}
+	}
+
+	/**
+	 * Runs {@link #doRun()} in a thread from {@link WorkerExecutors#timedRuns()},
+	 * and waits for it until the passed time.  If the time runs out first, the run
+	 * is interrupted and abandoned, so that the chain goes on to {@link #done()}
+	 * even when <code>run()</code> is stuck in a call which ignores interrupts.
+	 * An interrupt of this thread, as from {@link #cancel(boolean)}, is passed on
+	 * to the run, and left set once the run is over.
+	 * @param until the time from System.nanoTime()
+	 * @throws StepTimeoutException if the time ran out
+	 */
+	private void runTimed(long until) throws InterruptedException {
+		if (until - System.nanoTime() <= 0) {
+			throw new StepTimeoutException(getName()+" did not finish in time");
+		}
+		TimedRun tr = new TimedRun(new InContextRunnable<Object>() {
+			public Object doRun() {
+				SyncThread.this.doRun();
+				return null;
+			}
+		});
+		WorkerExecutors.timedRuns().execute(tr);
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					if (tr.done.await(until - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+						break;
+					}
+					if (tr.abandon()) {
+						throw new StepTimeoutException(getName()+" did not finish in time");
+					}
+					// It finished just as the time ran out
+					tr.done.await();
+					break;
+				} catch (InterruptedException ex) {
+					interrupted = true;
+					tr.interrupt();
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		Throwable failure = tr.failure;
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException)failure;
+		} else if (failure instanceof Error) {
+			throw (Error)failure;
+		} else if (failure != null) {
+			throw new RuntimeException(failure);
+		}
+	}
+
+	/**
+	 * A {@link #doRun()} being run by {@link #runTimed(long)}, which can be
+	 * interrupted while it is running, and abandoned once its time is up.
+	 */
+	private static class TimedRun implements Runnable {
+		private final Runnable work;
+		private final int priority = Thread.currentThread().getPriority();
+		private final CountDownLatch done = new CountDownLatch(1);
+		private Thread thread;
+		private boolean over;
+		private volatile Throwable failure;
+
+		TimedRun(Runnable work) {
+			this.work = work;
+		}
+
+		public void run() {
+			synchronized (this) {
+				// Abandoned before a thread got to it
+				if (over) {
+					return;
+				}
+				thread = Thread.currentThread();
+			}
+			// Run at the priority of the lane it would have run in
+			int prio = thread.getPriority();
+			thread.setPriority(priority);
+			try {
+				work.run();
+			} catch (Throwable ex) {
+				failure = ex;
+			} finally {
+				synchronized (this) {
+					thread.setPriority(prio);
+					thread = null;
+					over = true;
+				}
+				// Don't leave an interrupt pending on a pooled thread
+				Thread.interrupted();
+				done.countDown();
+			}
+		}
+
+		synchronized void interrupt() {
+			if (thread != null) {
+				thread.interrupt();
+			}
+		}
+
+		/**
+		 * Give up on the run, interrupting it if it is running.
+		 * @return false if the run was already over
+		 */
+		synchronized boolean abandon() {
+			if (over) {
+				return false;
+			}
+			over = true;
+			if (thread != null) {
+				thread.interrupt();
+			}
+			return true;
+		}
+	}
+
 	/**
 	 * Creates an InContextRunnable instance to call {@link #setup()} in, and
 	 * to then disable components enumerated in the constructor().
@@ -455,8 +1490,13 @@ public class SyncThread<R, P> implements Callable<R> {
 	private void doSetup(boolean later) throws InterruptedException {
 		runInSwing(new InContextRunnable() {
 			public Object doRun() {
-				setup();
-				disableComponents();
+				long st = WorkerMetrics.now();
+				try {
+					setup();
+					disableComponents();
+				} finally {
+					WorkerMetrics.record( SyncThread.this.getClass(), WorkerMetrics.Phase.SETUP, st );
+				}
 				return null;
 			}
 		}, later);
@@ -481,8 +1521,14 @@ public class SyncThread<R, P> implements Callable<R> {
 	private void doDone(boolean later) throws InterruptedException {
 		runInSwing(new InContextRunnable() {
 			public Object doRun() {
-				enableComponents();
-				done();
+				long st = WorkerMetrics.now();
+				try {
+					deliverPublished(true);
+					enableComponents();
+					done();
+				} finally {
+					WorkerMetrics.record( SyncThread.this.getClass(), WorkerMetrics.Phase.FINISH, st );
+				}
 				return null;
 			}
 		}, later);
@@ -515,6 +1561,7 @@ public class SyncThread<R, P> implements Callable<R> {
 
 	/**
 	 * This method can be used to invoke the passed Runnable in the EventDispatchThread.
+	 * The wait for the EDT is measured by {@link EdtWatchdog} when it is enabled.
 	 * 
 	 * @param r The Runnable to dispatch
 	 * @param later if true, SwingUtilities.invokeLater() is used, otherwise 
@@ -529,24 +1576,52 @@ public class SyncThread<R, P> implements Callable<R> {
 				if (SwingUtilities.isEventDispatchThread()) {
 					r.run();
 				} else {
-					SwingUtilities.invokeAndWait(r);
+					EdtWatchdog.invokeAndWait(r);
 				}
 			}
 		// Throw the cause to make sure we get the actual exception instead of one wrapped
 		// inside an InvocationTargetException.
 		} catch (InvocationTargetException e) {
-			Throwable th = e.getTargetException();
-			if (th instanceof RuntimeException) {
-				throw (RuntimeException)th;
-			} else if (th instanceof Error) {
-				throw (Error)th;
-			} else {
-				throw new RuntimeException("Invocation target threw "+th.getClass().getName(), th);
-			}
+			throw targetOf(e);
 		}
 		
 	}
 
+	/**
+	 * This method can be used to invoke the passed Runnable in the EventDispatchThread,
+	 * giving up if the EDT is too busy to complete it in the passed time.  If the EDT has
+	 * not started the Runnable when the time runs out, it is not run at all.  If it has,
+	 * this still returns false then, and the Runnable finishes later on its own.
+	 * 
+	 * @param r The Runnable to dispatch
+	 * @param timeout how long to wait
+	 * @param unit the unit of timeout
+	 * @return true if the Runnable completed, false if the time ran out.
+	 * @throws java.lang.InterruptedException if the wait is interupted.
+	 * @see EdtWatchdog#invokeAndWait(Runnable, long, TimeUnit)
+	 */
+	public static boolean runInSwing(final Runnable r, long timeout, TimeUnit unit) throws InterruptedException {
+		try {
+			return EdtWatchdog.invokeAndWait(r, timeout, unit);
+		} catch (InvocationTargetException e) {
+			throw targetOf(e);
+		}
+	}
+
+	/**
+	 * Get the RuntimeException to throw for a failure in the EDT.
+	 */
+	private static RuntimeException targetOf(InvocationTargetException e) {
+		Throwable th = e.getTargetException();
+		if (th instanceof RuntimeException) {
+			return (RuntimeException)th;
+		} else if (th instanceof Error) {
+			throw (Error)th;
+		} else {
+			return new RuntimeException("Invocation target threw "+th.getClass().getName(), th);
+		}
+	}
+
 	/**
 	 * Many types of errors inside of this class are passed into this method and
 	 * simply logged at a SEVERE level.  A sub class can override this method to
@@ -561,7 +1636,7 @@ public class SyncThread<R, P> implements Callable<R> {
 	/**
 	 * This class provides a Runnable implementation which will use the
 	 * context ClassLoader active at construction of this instance, as
-	 * well as any active Subject.
+	 * well as any active Subject, as captured by {@link ContextPropagation}.
 	 * @param <T> The type of value created/returned by the action.
 	 */
     protected abstract class InContextRunnable<T> implements Runnable {
@@ -584,37 +1659,15 @@ public class SyncThread<R, P> implements Callable<R> {
 		}
 
     	public final void run() {
-    		Thread th = Thread.currentThread();
-    		ClassLoader ld = null;
-
-			if( setLoader ) {
-				ld = th.getContextClassLoader();
+			if( context.isEmpty() ) {
+				val = doRun();
+				return;
 			}
-    		try {
-				try {
-					if( setLoader )
-						th.setContextClassLoader( ctxLoader );
-				} catch( RuntimeException ex ) {
-					innerReportException(ex);
-					throw ex;
-				}
-    			if( !setLoader || subj == null ) {
-    				val = doRun();
-    			} else {
-    				Subject.doAsPrivileged( subj, new PrivilegedAction<T>() {
-    					public T run() {
-    						return doRun();
-    					}
-    				}, ctx);
-    			}
-    		} finally {
-				try {
-					if( setLoader )
-						th.setContextClassLoader( ld );
-				} catch( Exception ex ) {
-					innerReportException(ex);
+			val = context.call( new PrivilegedAction<T>() {
+				public T run() {
+					return doRun();
 				}
-			}
+			});
     	}
     }
 }
\ No newline at end of file
@@ -0,0 +1,54 @@
+package org.wonderly.swing;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *  A {@link ListListModel} which keeps its contents in an {@link IndexedTreeList},
+ *  so that inserting or removing rows anywhere in a list of millions of rows takes
+ *  O(log n) time, rather than moving every row after it.  It fires the same
+ *  events and has the same combo box selection as ListListModel, so it can be
+ *  used in place of one for large lists which are changed as they are shown,
+ *  such as a live log or a sorted view which rows are inserted into.
+ *  <p>
+ *  Lists passed to {@link #setContents(List)} or the constructor are copied
+ *  into a new tree, rather than used directly as ListListModel does.
+ *  <b>This class is not thread safe, and is intended to only ever be used from
+ *  the EDT</b>.
+ *  @see ListListModel
+ */
+public class TreeListModel<T> extends ListListModel<T> {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 *  Create an empty model.
+	 */
+	public TreeListModel() {
+		super( new IndexedTreeList<T>() );
+	}
+
+	/**
+	 *  Create a model holding a copy of the passed list.
+	 */
+	public TreeListModel( List<T> conts ) {
+		super( new IndexedTreeList<T>( conts ) );
+	}
+
+	public void copyInto( T anArray[] ) {
+		delegate = new IndexedTreeList<T>( Arrays.asList( anArray ) );
+	}
+
+	/**
+	 *  Does nothing, as the tree does not keep any spare room.
+	 */
+	public void trimToSize() {
+	}
+
+	/**
+	 *  Replace the contents with a copy of the passed list, unless it is
+	 *  already an {@link IndexedTreeList}.
+	 */
+	public void setContents( List<T> v ) {
+		super.setContents( v instanceof IndexedTreeList ? v : new IndexedTreeList<T>( v ) );
+	}
+}
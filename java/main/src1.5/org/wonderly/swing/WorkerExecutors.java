@@ -0,0 +1,249 @@
+package org.wonderly.swing;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import javax.swing.SwingUtilities;
+
+/**
+ *  This class provides the shared thread pool that {@link SwingWorker} and
+ *  {@link ComponentUpdateThread} instances use to run their <code>construct()</code>
+ *  work, instead of creating a new Thread for every instance.
+ *  <p>
+ *  The pool is bounded to {@link #DEFAULT_POOL_SIZE} threads, and idle threads
+ *  time out so that an application which is not doing any background work
+ *  does not hold onto threads.  Work submitted while all threads are busy
+ *  is queued.
+ *
+ *  @see SwingWorker#setDefaultExecutor(Executor)
+ *  @see SwingWorker#setExecutor(Executor)
+ */
+public final class WorkerExecutors {
+	/**
+	 *  The number of threads in the shared pool.  This can be changed with the
+	 *  <code>org.wonderly.swing.workers</code> system property.
+	 */
+	public static final int DEFAULT_POOL_SIZE = Integer.getInteger( "org.wonderly.swing.workers",
+		Math.max( 4, Runtime.getRuntime().availableProcessors() * 2 ) );
+
+	/**
+	 *  How long an idle thread in the pools made by {@link #newBoundedPool(String,int)}
+	 *  waits for more work before it exits.
+	 */
+	public static final int KEEP_ALIVE_SECONDS = 1;
+
+	private static volatile ThreadPoolExecutor shared;
+	private static volatile Executor virtual;
+	private static volatile ThreadPoolExecutor timed;
+	private static final Executor edt = new Executor() {
+		public void execute( Runnable r ) {
+			SwingUtilities.invokeLater( r );
+		}
+	};
+
+	private WorkerExecutors() {
+	}
+
+	/**
+	 *  Get the shared, bounded pool, creating it on first use.
+	 *  <p>
+	 *  Unlike the thread per instance which SwingWorker used to start, the pool
+	 *  only runs {@link #DEFAULT_POOL_SIZE} workers at once, and queues the rest.
+	 *  <ul>
+	 *  <li>A <code>construct()</code> which calls <code>get()</code> on another
+	 *  worker using this pool waits for a pool thread.  Once every thread is
+	 *  doing that, none are left to run the workers being waited for, and they
+	 *  all wait forever.  Give such inner workers their own executor with
+	 *  <code>setExecutor()</code>, or get their values outside of <code>construct()</code>.
+	 *  <li>Workers which run for a long time, such as ones which poll, hold their
+	 *  threads the whole time, and the workers queued behind them wait.  Give
+	 *  them their own pool, a {@link WorkerLane}, or {@link #virtualThreads()}.
+	 *  </ul>
+	 *  As with the thread per instance, the threads are not daemon threads, so
+	 *  a <code>construct()</code> which is still running, such as a save started
+	 *  as the last window closes, is finished before the JVM exits.  Idle threads
+	 *  exit after {@link #KEEP_ALIVE_SECONDS}, so the JVM is not held up for long
+	 *  once the work is done.
+	 */
+	public static Executor sharedPool() {
+		ThreadPoolExecutor exec = shared;
+		if( exec == null ) {
+			synchronized( WorkerExecutors.class ) {
+				if( shared == null )
+					shared = newBoundedPool( "SwingWorker", DEFAULT_POOL_SIZE );
+				exec = shared;
+			}
+		}
+		return exec;
+	}
+
+	/**
+	 *  Get an Executor which runs each task in a new virtual thread.  Virtual
+	 *  threads are only available on JDK 21 and later, so on older JDKs this
+	 *  returns {@link #sharedPool()} instead.  Virtual threads are always daemon
+	 *  threads, so work still running in them does not keep the JVM from exiting.
+	 *  @see #isVirtualThreadSupported()
+	 */
+	public static Executor virtualThreads() {
+		Executor exec = virtual;
+		if( exec == null ) {
+			exec = VirtualThreadExecutor.create();
+			if( exec == null )
+				exec = sharedPool();
+			virtual = exec;
+		}
+		return exec;
+	}
+
+	/**
+	 *  Check whether {@link #virtualThreads()} really uses virtual threads.
+	 */
+	public static boolean isVirtualThreadSupported() {
+		return virtualThreads() instanceof VirtualThreadExecutor;
+	}
+
+	/**
+	 *  Starts each task with <code>Thread.startVirtualThread(Runnable)</code>,
+	 *  which is looked up reflectively so that this class still compiles and
+	 *  runs on JDKs which don't have it.
+	 */
+	private static class VirtualThreadExecutor implements Executor {
+		private final Method start;
+
+		private VirtualThreadExecutor( Method start ) {
+			this.start = start;
+		}
+
+		static VirtualThreadExecutor create() {
+			// JDK 19 and 20 have the method as a preview API which throws when used
+			String ver = System.getProperty( "java.specification.version", "1" );
+			if( ver.startsWith( "1." ) || Integer.parseInt( ver.split( "\\." )[0] ) < 21 )
+				return null;
+			try {
+				return new VirtualThreadExecutor(
+					Thread.class.getMethod( "startVirtualThread", Runnable.class ) );
+			} catch( NoSuchMethodException ex ) {
+				return null;
+			}
+		}
+
+		public void execute( Runnable r ) {
+			try {
+				start.invoke( null, r );
+			} catch( java.lang.reflect.InvocationTargetException ex ) {
+				Throwable th = ex.getTargetException();
+				if( th instanceof RuntimeException )
+					throw (RuntimeException)th;
+				if( th instanceof Error )
+					throw (Error)th;
+				throw new java.util.concurrent.RejectedExecutionException( th );
+			} catch( IllegalAccessException ex ) {
+				throw new java.util.concurrent.RejectedExecutionException( ex );
+			}
+		}
+	}
+
+	/**
+	 *  Get an Executor which runs each task later in the EDT, with
+	 *  <code>SwingUtilities.invokeLater()</code>.  This can be passed to the
+	 *  <code>...Async</code> methods of <code>CompletableFuture</code> to
+	 *  continue with UI work.
+	 */
+	public static Executor edt() {
+		return edt;
+	}
+
+	/**
+	 *  Get a future which completes in the EDT, with the same value or
+	 *  exception, after the passed future completes.
+	 */
+	static <T> CompletableFuture<T> completeInEdt( CompletableFuture<T> src ) {
+		final CompletableFuture<T> f = new CompletableFuture<T>();
+		src.whenComplete( new BiConsumer<T,Throwable>() {
+			public void accept( final T val, final Throwable err ) {
+				edt.execute( new Runnable() {
+					public void run() {
+						if( err == null )
+							f.complete( val );
+						else
+							f.completeExceptionally( err );
+					}
+				});
+			}
+		});
+		return f;
+	}
+
+	/**
+	 *  Get the pool which runs work that has a time limit, such as a {@link SyncThread}
+	 *  step with a timeout, while the thread which started it waits.  It is not bounded,
+	 *  and does not use a lane's threads, so a timed step takes no more lane slots
+	 *  than an untimed one.  The threads are daemon threads, so that work which
+	 *  ran past its time and was abandoned does not keep the JVM running.  Work
+	 *  which is still being waited for is kept alive by the thread waiting for it.
+	 */
+	static Executor timedRuns() {
+		ThreadPoolExecutor exec = timed;
+		if( exec == null ) {
+			synchronized( WorkerExecutors.class ) {
+				if( timed == null ) {
+					timed = new ThreadPoolExecutor( 0, Integer.MAX_VALUE,
+						KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+						new ThreadFactory() {
+							private final AtomicInteger cnt = new AtomicInteger();
+							public Thread newThread( Runnable r ) {
+								Thread th = new Thread( r, "SwingWorker-timed-"+cnt.incrementAndGet() );
+								th.setDaemon( true );
+								return th;
+							}
+						});
+				}
+				exec = timed;
+			}
+		}
+		return exec;
+	}
+
+	/**
+	 *  Create a new pool with at most <code>threads</code> threads.  The threads
+	 *  are named with the passed prefix, are not daemon threads, and exit after
+	 *  being idle for {@link #KEEP_ALIVE_SECONDS}.
+	 *
+	 *  @param name the prefix for the thread names
+	 *  @param threads the maximum number of threads to use
+	 */
+	public static ThreadPoolExecutor newBoundedPool( String name, int threads ) {
+		ThreadPoolExecutor exec = new ThreadPoolExecutor( threads, threads,
+			KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+			new NamedThreadFactory( name ) );
+		exec.allowCoreThreadTimeOut( true );
+		return exec;
+	}
+
+	/**
+	 *  Creates threads named &lt;prefix&gt;-pool-&lt;n&gt;.  They are not daemon
+	 *  threads, as with {@link WorkerLane}, so that running work is not cut off
+	 *  when the JVM exits.
+	 */
+	static class NamedThreadFactory implements ThreadFactory {
+		private final AtomicInteger cnt = new AtomicInteger();
+		private final String name;
+
+		NamedThreadFactory( String name ) {
+			this.name = name;
+		}
+
+		public Thread newThread( Runnable r ) {
+			Thread th = new Thread( r, name+"-pool-"+cnt.incrementAndGet() );
+			th.setDaemon( false );
+			return th;
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package org.wonderly.swing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *  A named lane of background work with its own threads, so that one kind of
+ *  work can not starve another.  Each lane runs at most its concurrency limit
+ *  of tasks at once, at its own thread priority, and queues the rest.  A bulk
+ *  export in the {@link #BULK} lane then leaves the {@link #INTERACTIVE} lane
+ *  free for the small lookups which keep the UI responsive.
+ *  <p>
+ *  A {@link SyncThread} is put in a lane with {@link SyncThread#setLane(WorkerLane)},
+ *  and a {@link SwingWorker} with <code>setExecutor( lane )</code>.  The depth of
+ *  each lane's queue and the time tasks wait in it are kept for tuning, and are
+ *  also available through {@link WorkerMetricsMXBean}.
+ *  <pre>
+ *  WorkerLane.BULK.setConcurrency( 1 );
+ *  WorkerLane reports = WorkerLane.define( "reports", 2, Thread.MIN_PRIORITY );
+ *  ...
+ *  th.setLane( reports );
+ *  th.start();
+ *  </pre>
+ */
+public final class WorkerLane implements Executor {
+	private static final ConcurrentHashMap<String,WorkerLane> lanes =
+		new ConcurrentHashMap<String,WorkerLane>();
+
+	/** For short work which the user is waiting on */
+	public static final WorkerLane INTERACTIVE = define( "interactive",
+		Math.max( 4, Runtime.getRuntime().availableProcessors() ), Thread.NORM_PRIORITY );
+	/** For long running work such as exports and reports */
+	public static final WorkerLane BULK = define( "bulk", 2, Thread.MIN_PRIORITY );
+	/** For work which mostly waits on the network or disk */
+	public static final WorkerLane IO = define( "io", 16, Thread.NORM_PRIORITY );
+
+	private final String name;
+	private final int priority;
+	private final ThreadPoolExecutor exec;
+	private final WorkerMetrics.Histogram waits = new WorkerMetrics.Histogram();
+	private final AtomicInteger maxDepth = new AtomicInteger();
+
+	private WorkerLane( final String name, int limit, final int priority ) {
+		this.name = name;
+		this.priority = priority;
+		exec = new ThreadPoolExecutor( limit, limit, 10, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				private final AtomicInteger cnt = new AtomicInteger();
+				public Thread newThread( Runnable r ) {
+					Thread th = new Thread( r, "SyncThread-"+name+"-"+cnt.incrementAndGet() );
+					th.setDaemon( false );
+					th.setPriority( priority );
+					return th;
+				}
+			});
+		exec.allowCoreThreadTimeOut( true );
+	}
+
+	/**
+	 *  Get the lane with the passed name, creating it if it does not exist yet.
+	 *  An existing lane keeps its limit and priority.
+	 *  @param name the name of the lane
+	 *  @param limit the most tasks which the lane runs at once
+	 *  @param priority the priority of the lane's threads
+	 */
+	public static WorkerLane define( String name, int limit, int priority ) {
+		if( limit < 1 )
+			throw new IllegalArgumentException( "limit must be positive: "+limit );
+		if( priority < Thread.MIN_PRIORITY || priority > Thread.MAX_PRIORITY )
+			throw new IllegalArgumentException( "bad thread priority: "+priority );
+		WorkerLane lane = lanes.get( name );
+		if( lane == null ) {
+			lane = new WorkerLane( name, limit, priority );
+			WorkerLane old = lanes.putIfAbsent( name, lane );
+			if( old != null ) {
+				lane.exec.shutdown();
+				lane = old;
+			}
+		}
+		return lane;
+	}
+
+	/**
+	 *  Get the lane with the passed name.
+	 *  @return null if no such lane has been defined
+	 */
+	public static WorkerLane get( String name ) {
+		return lanes.get( name );
+	}
+
+	/**
+	 *  Get all of the lanes which have been defined.
+	 */
+	public static List<WorkerLane> getLanes() {
+		return new ArrayList<WorkerLane>( lanes.values() );
+	}
+
+	/**
+	 *  Get the name of this lane.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 *  Get the priority of this lane's threads.
+	 */
+	public int getPriority() {
+		return priority;
+	}
+
+	/**
+	 *  Change the most tasks which this lane runs at once.
+	 */
+	public synchronized void setConcurrency( int limit ) {
+		if( limit < 1 )
+			throw new IllegalArgumentException( "limit must be positive: "+limit );
+		if( limit > exec.getMaximumPoolSize() ) {
+			exec.setMaximumPoolSize( limit );
+			exec.setCorePoolSize( limit );
+		} else {
+			exec.setCorePoolSize( limit );
+			exec.setMaximumPoolSize( limit );
+		}
+	}
+
+	/**
+	 *  Get the most tasks which this lane runs at once.
+	 */
+	public int getConcurrency() {
+		return exec.getMaximumPoolSize();
+	}
+
+	/**
+	 *  Get the number of tasks waiting for one of this lane's threads.
+	 */
+	public int getQueueDepth() {
+		return exec.getQueue().size();
+	}
+
+	/**
+	 *  Get the deepest the queue has been since the last {@link #resetMetrics()}.
+	 */
+	public int getMaxQueueDepth() {
+		return maxDepth.get();
+	}
+
+	/**
+	 *  Get the number of tasks running in this lane now.
+	 */
+	public int getActiveCount() {
+		return exec.getActiveCount();
+	}
+
+	/**
+	 *  Get the histogram of how long tasks waited in the queue before running.
+	 */
+	public WorkerMetrics.Histogram getWaitHistogram() {
+		return waits;
+	}
+
+	/**
+	 *  Forget the maximum queue depth and the recorded waits.
+	 */
+	public void resetMetrics() {
+		maxDepth.set( 0 );
+		waits.reset();
+	}
+
+	/**
+	 *  Queue the passed task to run in this lane.
+	 */
+	public void execute( final Runnable r ) {
+		final long queued = System.nanoTime();
+		exec.execute( new Runnable() {
+			public void run() {
+				waits.record( System.nanoTime() - queued );
+				r.run();
+			}
+		});
+		int depth = exec.getQueue().size(), m;
+		while( depth > (m = maxDepth.get()) && !maxDepth.compareAndSet( m, depth ) )
+			;
+	}
+
+	public String toString() {
+		return "WorkerLane["+name+", limit="+getConcurrency()+", active="+getActiveCount()+
+			", queued="+getQueueDepth()+", waits: "+waits+"]";
+	}
+}
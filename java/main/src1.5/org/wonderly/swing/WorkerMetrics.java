@@ -0,0 +1,309 @@
+package org.wonderly.swing;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.ObjectName;
+
+/**
+ *  This class records where the time goes in the background tasks run by
+ *  {@link SwingWorker}, {@link ComponentUpdateThread} and {@link SyncThread}.
+ *  Each task's time is split into the {@link Phase}s, and recorded in a
+ *  histogram for the task's class, so that the workers which hold up the
+ *  EDT can be found.
+ *  <pre>
+ *  WorkerMetrics.setEnabled( true );
+ *  WorkerMetrics.registerMBean();
+ *  ...
+ *  for( String cls : WorkerMetrics.getTaskClasses() ) {
+ *      Histogram h = WorkerMetrics.getHistogram( cls, Phase.SETUP );
+ *      log.info( cls+" setup: "+h );
+ *  }
+ *  </pre>
+ *  Recording is off by default, and costs only a volatile read per phase
+ *  while off.  It can also be turned on with the <code>org.wonderly.swing.metrics</code>
+ *  system property.  When {@link #setJfrEnabled(boolean)} is on, each recorded
+ *  phase is also committed as a <code>org.wonderly.swing.WorkerPhase</code> JFR event.
+ */
+public final class WorkerMetrics {
+	private static final Logger log = Logger.getLogger( WorkerMetrics.class.getName() );
+	private static volatile boolean enabled = Boolean.getBoolean( "org.wonderly.swing.metrics" );
+	private static volatile boolean jfr;
+	private static final ConcurrentHashMap<String,Histogram[]> tasks =
+		new ConcurrentHashMap<String,Histogram[]>();
+
+	/**
+	 *  The parts of a task's life which are measured.
+	 */
+	public enum Phase {
+		/** From start() until the background thread began the task. */
+		QUEUE,
+		/** EDT time spent in setup(). */
+		SETUP,
+		/** Background time spent in construct() or run(). */
+		BACKGROUND,
+		/** EDT time spent in finished() or done(). */
+		FINISH
+	}
+
+	private WorkerMetrics() {
+	}
+
+	/**
+	 *  Turn recording on or off.
+	 */
+	public static void setEnabled( boolean how ) {
+		enabled = how;
+	}
+
+	/**
+	 *  Check whether recording is on.
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 *  Turn the JFR events on or off.  They are only produced while recording is
+	 *  on, and require a JDK which has the <code>jdk.jfr</code> module.
+	 */
+	public static void setJfrEnabled( boolean how ) {
+		jfr = how;
+	}
+
+	/**
+	 *  Check whether JFR events are being produced.
+	 */
+	public static boolean isJfrEnabled() {
+		return jfr;
+	}
+
+	/**
+	 *  Get the time to pass to {@link #record}, or 0 when not recording.
+	 */
+	static long now() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 *  Record the time from <code>start</code>, as returned by {@link #now()}, until now.
+	 */
+	static void record( Class<?> task, Phase phase, long start ) {
+		if( start == 0 || !enabled )
+			return;
+		long nanos = System.nanoTime() - start;
+		histograms( task.getName() )[ phase.ordinal() ].record( nanos );
+		if( jfr ) {
+			try {
+				WorkerPhaseEvent.emit( task.getName(), phase.name(), nanos );
+			} catch( LinkageError ex ) {
+				jfr = false;
+				log.log( Level.WARNING, "JFR is not available, events disabled", ex );
+			}
+		}
+	}
+
+	private static Histogram[] histograms( String task ) {
+		Histogram[] h = tasks.get( task );
+		if( h == null ) {
+			h = new Histogram[ Phase.values().length ];
+			for( int i = 0; i < h.length; ++i )
+				h[i] = new Histogram();
+			Histogram[] old = tasks.putIfAbsent( task, h );
+			if( old != null )
+				h = old;
+		}
+		return h;
+	}
+
+	/**
+	 *  Get the names of all the task classes which have been recorded.
+	 */
+	public static List<String> getTaskClasses() {
+		return new ArrayList<String>( tasks.keySet() );
+	}
+
+	/**
+	 *  Get the histogram for the passed task class and phase.
+	 *  @return null if nothing has been recorded for the class
+	 */
+	public static Histogram getHistogram( String task, Phase phase ) {
+		Histogram[] h = tasks.get( task );
+		return h == null ? null : h[ phase.ordinal() ];
+	}
+
+	/**
+	 *  Forget everything recorded so far.
+	 */
+	public static void reset() {
+		tasks.clear();
+	}
+
+	/**
+	 *  Register a {@link WorkerMetricsMXBean} with the platform MBeanServer as
+	 *  <code>org.wonderly.swing:type=WorkerMetrics</code>.  Calling this more
+	 *  than once does nothing.
+	 */
+	public static synchronized void registerMBean() {
+		try {
+			ObjectName name = new ObjectName( "org.wonderly.swing:type=WorkerMetrics" );
+			if( !ManagementFactory.getPlatformMBeanServer().isRegistered( name ) )
+				ManagementFactory.getPlatformMBeanServer().registerMBean( new MXBean(), name );
+		} catch( Exception ex ) {
+			log.log( Level.WARNING, ex.toString(), ex );
+		}
+	}
+
+	/**
+	 *  A histogram of durations with power of two buckets.  Recording is a few
+	 *  atomic increments and never blocks, so the percentiles are only accurate
+	 *  to within a factor of two.
+	 */
+	public static final class Histogram {
+		private final AtomicLongArray buckets = new AtomicLongArray( 64 );
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong total = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+
+		void record( long nanos ) {
+			if( nanos < 0 )
+				nanos = 0;
+			buckets.incrementAndGet( 63 - Long.numberOfLeadingZeros( nanos | 1 ) );
+			count.incrementAndGet();
+			total.addAndGet( nanos );
+			long m;
+			while( nanos > (m = max.get()) && !max.compareAndSet( m, nanos ) )
+				;
+		}
+
+		/** Forget the recorded durations */
+		void reset() {
+			for( int i = 0; i < 64; ++i )
+				buckets.set( i, 0 );
+			count.set( 0 );
+			total.set( 0 );
+			max.set( 0 );
+		}
+
+		/** Get the number of durations recorded */
+		public long getCount() {
+			return count.get();
+		}
+
+		/** Get the total of the durations recorded, in nanoseconds */
+		public long getTotalNanos() {
+			return total.get();
+		}
+
+		/** Get the longest duration recorded, in nanoseconds */
+		public long getMaxNanos() {
+			return max.get();
+		}
+
+		/** Get the mean duration, in nanoseconds */
+		public long getMeanNanos() {
+			long cnt = count.get();
+			return cnt == 0 ? 0 : total.get() / cnt;
+		}
+
+		/**
+		 *  Get the duration which the passed fraction of the recorded durations
+		 *  did not exceed, rounded up to a power of two.
+		 *  @param fraction between 0 and 1, e.g. 0.99
+		 *  @return the duration in nanoseconds
+		 */
+		public long getPercentileNanos( double fraction ) {
+			long cnt = count.get();
+			if( cnt == 0 )
+				return 0;
+			long want = (long)Math.ceil( cnt * fraction );
+			long seen = 0;
+			for( int i = 0; i < 64; ++i ) {
+				seen += buckets.get(i);
+				if( seen >= want )
+					return Math.min( i == 63 ? Long.MAX_VALUE : (2L << i) - 1, max.get() );
+			}
+			return max.get();
+		}
+
+		public String toString() {
+			return "count="+getCount()+", mean="+(getMeanNanos()/1000)+"us, p50="+
+				(getPercentileNanos(.5)/1000)+"us, p99="+(getPercentileNanos(.99)/1000)+
+				"us, max="+(getMaxNanos()/1000)+"us";
+		}
+	}
+
+	private static class MXBean implements WorkerMetricsMXBean {
+		public boolean isEnabled() {
+			return WorkerMetrics.isEnabled();
+		}
+		public void setEnabled( boolean how ) {
+			WorkerMetrics.setEnabled( how );
+		}
+		public boolean isJfrEnabled() {
+			return WorkerMetrics.isJfrEnabled();
+		}
+		public void setJfrEnabled( boolean how ) {
+			WorkerMetrics.setJfrEnabled( how );
+		}
+		public String[] getTaskClasses() {
+			return WorkerMetrics.getTaskClasses().toArray( new String[0] );
+		}
+		public long getCount( String task, String phase ) {
+			Histogram h = getHistogram( task, Phase.valueOf( phase ) );
+			return h == null ? 0 : h.getCount();
+		}
+		public double getMeanMillis( String task, String phase ) {
+			Histogram h = getHistogram( task, Phase.valueOf( phase ) );
+			return h == null ? 0 : h.getMeanNanos() / 1e6;
+		}
+		public double getPercentileMillis( String task, String phase, double fraction ) {
+			Histogram h = getHistogram( task, Phase.valueOf( phase ) );
+			return h == null ? 0 : h.getPercentileNanos( fraction ) / 1e6;
+		}
+		public double getMaxMillis( String task, String phase ) {
+			Histogram h = getHistogram( task, Phase.valueOf( phase ) );
+			return h == null ? 0 : h.getMaxNanos() / 1e6;
+		}
+		public void reset() {
+			WorkerMetrics.reset();
+		}
+		public String[] getLanes() {
+			List<String> names = new ArrayList<String>();
+			for( WorkerLane l : WorkerLane.getLanes() )
+				names.add( l.getName() );
+			return names.toArray( new String[0] );
+		}
+		public int getLaneQueueDepth( String lane ) {
+			WorkerLane l = WorkerLane.get( lane );
+			return l == null ? 0 : l.getQueueDepth();
+		}
+		public int getLaneMaxQueueDepth( String lane ) {
+			WorkerLane l = WorkerLane.get( lane );
+			return l == null ? 0 : l.getMaxQueueDepth();
+		}
+		public int getLaneActiveCount( String lane ) {
+			WorkerLane l = WorkerLane.get( lane );
+			return l == null ? 0 : l.getActiveCount();
+		}
+		public double getLaneWaitPercentileMillis( String lane, double fraction ) {
+			WorkerLane l = WorkerLane.get( lane );
+			return l == null ? 0 : l.getWaitHistogram().getPercentileNanos( fraction ) / 1e6;
+		}
+		public int getLaneConcurrency( String lane ) {
+			WorkerLane l = WorkerLane.get( lane );
+			return l == null ? 0 : l.getConcurrency();
+		}
+		public void setLaneConcurrency( String lane, int limit ) {
+			WorkerLane l = WorkerLane.get( lane );
+			if( l == null )
+				throw new IllegalArgumentException( "no such lane: "+lane );
+			l.setConcurrency( limit );
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package org.wonderly.swing;
+
+/**
+ *  The JMX view of {@link WorkerMetrics}.  Phases are named as in
+ *  {@link WorkerMetrics.Phase}, and tasks by their class name.  The
+ *  {@link WorkerLane}s are named by {@link WorkerLane#getName()}.
+ *  @see WorkerMetrics#registerMBean()
+ */
+public interface WorkerMetricsMXBean {
+	public boolean isEnabled();
+	public void setEnabled( boolean how );
+	public boolean isJfrEnabled();
+	public void setJfrEnabled( boolean how );
+	public String[] getTaskClasses();
+	public long getCount( String task, String phase );
+	public double getMeanMillis( String task, String phase );
+	public double getPercentileMillis( String task, String phase, double fraction );
+	public double getMaxMillis( String task, String phase );
+	public void reset();
+	public String[] getLanes();
+	public int getLaneQueueDepth( String lane );
+	public int getLaneMaxQueueDepth( String lane );
+	public int getLaneActiveCount( String lane );
+	public double getLaneWaitPercentileMillis( String lane, double fraction );
+	public int getLaneConcurrency( String lane );
+	public void setLaneConcurrency( String lane, int limit );
+}
@@ -0,0 +1,36 @@
+package org.wonderly.swing;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ *  The JFR event committed by {@link WorkerMetrics} for each recorded phase.
+ *  This class is only loaded once JFR events have been turned on.
+ */
+@Name("org.wonderly.swing.WorkerPhase")
+@Label("Worker Phase")
+@Category({"Swing", "Workers"})
+class WorkerPhaseEvent extends Event {
+	@Label("Task Class")
+	String task;
+
+	@Label("Phase")
+	String phase;
+
+	@Label("Duration")
+	@Timespan(Timespan.NANOSECONDS)
+	long nanos;
+
+	static void emit( String task, String phase, long nanos ) {
+		WorkerPhaseEvent ev = new WorkerPhaseEvent();
+		if( !ev.isEnabled() )
+			return;
+		ev.task = task;
+		ev.phase = phase;
+		ev.nanos = nanos;
+		ev.commit();
+	}
+}
@@ -0,0 +1,147 @@
+package org.wonderly.swing;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ *  This class limits how often a worker is launched when the trigger fires
+ *  repeatedly, as with double clicks or auto repeating keys.  A {@link #debounce}
+ *  trigger launches once things have been quiet for the delay.  A {@link #throttle}
+ *  trigger launches at most once per delay, and always launches once more after
+ *  the last trigger, so the final request is never lost.
+ *  <p>
+ *  Each trigger uses a single Swing Timer, so no thread is created for the
+ *  triggers which are suppressed.  The launch always happens in the EDT, and
+ *  {@link #trigger()} can be called from any thread.
+ *  <pre>
+ *  am.defineAction( "Reload", new LabeledAction( "Reload" ) {
+ *      WorkerTrigger reload = WorkerTrigger.debounce( 300, new Runnable() {
+ *          public void run() {
+ *              new ComponentUpdateThread&lt;Vector&gt;( list ) {
+ *                  ...
+ *              }.start();
+ *          }
+ *      });
+ *      public void actionPerformed( ActionEvent ev ) {
+ *          reload.trigger();
+ *      }
+ *  });
+ *  </pre>
+ */
+public abstract class WorkerTrigger {
+	protected final int delay;
+	protected final Runnable launch;
+	protected final Timer timer;
+
+	private WorkerTrigger( int delay, Runnable launch ) {
+		if( delay < 0 )
+			throw new IllegalArgumentException( "delay can not be negative: "+delay );
+		this.delay = delay;
+		this.launch = launch;
+		timer = new Timer( delay, new ActionListener() {
+			public void actionPerformed( ActionEvent ev ) {
+				fired();
+			}
+		});
+		timer.setRepeats( false );
+	}
+
+	/**
+	 *  Create a trigger which launches once no trigger has happened for <code>millis</code>.
+	 *  @param millis the quiet time to wait for
+	 *  @param launch creates and starts the worker
+	 */
+	public static WorkerTrigger debounce( int millis, Runnable launch ) {
+		return new WorkerTrigger( millis, launch ) {
+			public void trigger() {
+				timer.restart();
+			}
+			protected void fired() {
+				launch.run();
+			}
+		};
+	}
+
+	/**
+	 *  Create a trigger which launches at most once every <code>millis</code>.  The
+	 *  first trigger launches right away, and the triggers which are suppressed
+	 *  cause one more launch when the time is up.
+	 *  @param millis the shortest time between launches
+	 *  @param launch creates and starts the worker
+	 */
+	public static WorkerTrigger throttle( int millis, Runnable launch ) {
+		return new WorkerTrigger( millis, launch ) {
+			private long last;
+			private boolean pending;
+
+			public void trigger() {
+				synchronized( this ) {
+					long now = System.currentTimeMillis();
+					if( timer.isRunning() || now - last < delay ) {
+						if( !pending ) {
+							pending = true;
+							timer.setInitialDelay( (int)Math.max( 0, last + delay - now ) );
+							timer.start();
+						}
+						return;
+					}
+					last = now;
+				}
+				if( SwingUtilities.isEventDispatchThread() ) {
+					launch.run();
+				} else {
+					SwingUtilities.invokeLater( launch );
+				}
+			}
+
+			protected void fired() {
+				synchronized( this ) {
+					if( !pending )
+						return;
+					pending = false;
+					last = System.currentTimeMillis();
+				}
+				launch.run();
+			}
+
+			public void cancel() {
+				synchronized( this ) {
+					pending = false;
+				}
+				super.cancel();
+			}
+		};
+	}
+
+	/**
+	 *  Note that the worker is wanted.  It will be launched according to the
+	 *  kind of trigger this is.
+	 */
+	public abstract void trigger();
+
+	/**
+	 *  Called in the EDT when the timer goes off.
+	 */
+	protected abstract void fired();
+
+	/**
+	 *  Drop any launch which is waiting on the timer.
+	 */
+	public void cancel() {
+		timer.stop();
+	}
+
+	/**
+	 *  Get an ActionListener which calls {@link #trigger()}, for use
+	 *  with buttons and other components.
+	 */
+	public ActionListener asActionListener() {
+		return new ActionListener() {
+			public void actionPerformed( ActionEvent ev ) {
+				trigger();
+			}
+		};
+	}
+}